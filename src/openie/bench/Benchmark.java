@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal microbenchmark harness: each kernel is warmed up, then timed over a few fixed-length
+ * iterations in batches of calls sized to about a millisecond, so the clock is read rarely.
+ * Reports throughput (ops/s, with the spread over iterations) and bytes allocated per op by
+ * the benchmark thread, and compares them with a previous CSV report to flag regressions.
+ */
+public class Benchmark {
+
+	// one operation; the result is consumed so that the work cannot be optimized away
+	public interface Kernel {
+		Object run () throws Exception;
+	}
+
+	public static class Result {
+		public String name;
+		public double opsPerSec;
+		public double error;	// standard deviation over the iterations, in ops/s
+		public double bytesPerOp;	// -1 if the JVM cannot measure allocation
+		public long ops;
+
+		public String toCsv () {
+			return String.format("%s,%.3f,%.3f,%.1f,%d", name, opsPerSec, error, bytesPerOp, ops);
+		}
+	}
+
+	protected long warmupMillis = 1000;
+	protected long iterationMillis = 1000;
+	protected int iterations = 5;
+	protected Pattern filter;
+
+	protected ArrayList<Result> results = new ArrayList<Result>();
+
+	public static volatile Object sink;
+
+	public Benchmark (long warmupMillis, long iterationMillis, int iterations) {
+		this.warmupMillis = warmupMillis;
+		this.iterationMillis = iterationMillis;
+		this.iterations = iterations;
+	}
+
+	// runs only the kernels whose name contains a match of the regex
+	public void setFilter (String regex) {
+		filter = regex == null ? null : Pattern.compile(regex);
+	}
+
+	public boolean accept (String name) {
+		return filter == null || filter.matcher(name).find();
+	}
+
+	// measures a kernel, or returns null if it is filtered out
+	public Result run (String name, Kernel kernel) throws Exception {
+		return run(name, kernel, 0);
+	}
+
+	// same, warming up for at least minWarmupMillis
+	public Result run (String name, Kernel kernel, long minWarmupMillis) throws Exception {
+		if (!accept(name))
+			return null;
+
+		// warm-up, growing the batch until it takes about a millisecond
+		int batch = 1;
+		long deadline = System.nanoTime() + Math.max(warmupMillis, minWarmupMillis) * 1000000L;
+		do {
+			long start = System.nanoTime();
+			for (int i = 0; i < batch; i++)
+				sink = kernel.run();
+			if (System.nanoTime() - start < 1000000L && batch < (1 << 24))
+				batch *= 2;
+		} while (System.nanoTime() < deadline);
+
+		double[] rates = new double[iterations];
+		long ops = 0;
+		long allocated = allocatedBytes();
+		for (int n = 0; n < iterations; n++) {
+			long count = 0, start = System.nanoTime(), elapsed;
+			do {
+				for (int i = 0; i < batch; i++)
+					sink = kernel.run();
+				count += batch;
+				elapsed = System.nanoTime() - start;
+			} while (elapsed < iterationMillis * 1000000L);
+			rates[n] = count * 1e9 / elapsed;
+			ops += count;
+		}
+		long allocatedAfter = allocatedBytes();
+
+		Result r = new Result();
+		r.name = name;
+		r.ops = ops;
+		for (double rate : rates)
+			r.opsPerSec += rate / iterations;
+		for (double rate : rates)
+			r.error += (rate - r.opsPerSec) * (rate - r.opsPerSec);
+		r.error = iterations > 1 ? Math.sqrt(r.error / (iterations - 1)) : 0;
+		r.bytesPerOp = allocated >= 0 ? (double) (allocatedAfter - allocated) / ops : -1;
+		results.add(r);
+		System.err.println(String.format("%-40s %14.1f ops/s +- %5.1f%% %12.1f B/op", name, r.opsPerSec, 100 * r.error / r.opsPerSec, r.bytesPerOp));
+		return r;
+	}
+
+	// bytes allocated so far by the current thread, or -1 if unsupported
+	private static long allocatedBytes () {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+			if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled())
+				return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	public ArrayList<Result> getResults () {
+		return results;
+	}
+
+	public void report (PrintStream out) {
+		out.println("name,ops_per_sec,error,bytes_per_op,ops");
+		for (Result r : results)
+			out.println(r.toCsv());
+	}
+
+	// reads the ops/s column of a report written by @report
+	public static HashMap<String, Double> readReport (String filename) throws IOException {
+		HashMap<String, Double> rates = new HashMap<String, Double>();
+		BufferedReader br = new BufferedReader(new FileReader(filename));
+		String line = br.readLine();	// header
+		while ((line = br.readLine()) != null) {
+			String[] tokens = line.split(",");
+			if (tokens.length >= 2)
+				rates.put(tokens[0], Double.parseDouble(tokens[1]));
+		}
+		br.close();
+		return rates;
+	}
+
+	// number of kernels more than tolerance (e.g. 0.1 = 10%) slower than in the baseline report
+	public int compare (String baselineFile, double tolerance, PrintStream out) throws IOException {
+		HashMap<String, Double> baseline = readReport(baselineFile);
+		int nRegressions = 0;
+		for (Result r : results) {
+			Double before = baseline.get(r.name);
+			if (before == null)
+				continue;
+			double change = r.opsPerSec / before - 1;
+			boolean regressed = change < -tolerance;
+			if (regressed)
+				nRegressions++;
+			out.println(String.format("%-40s %+7.1f%%%s", r.name, 100 * change, regressed ? "  REGRESSION" : ""));
+		}
+		return nRegressions;
+	}
+}
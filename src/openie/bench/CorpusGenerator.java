@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.bench;
+
+import jargs.gnu.CmdLineParser;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes synthetic corpora in the @UnitextCorpus format for scaling tests: one token per line
+ * (label, then features) and a blank line after each sequence. Features are drawn from a
+ * Zipfian distribution over the vocabulary, and shifted by the label with probability
+ * "signal" so that the task is learnable. Labels follow a sticky chain, so that transitions
+ * matter. ENT and NP are the first two labels, as in the relation data.
+ *
+ * Generation streams to the file in constant memory, so corpora of billions of tokens are
+ * limited only by disk space.
+ */
+public class CorpusGenerator {
+
+	private static Logger logger = Logger.getLogger(CorpusGenerator.class);
+
+	protected int nVocab = 100000;
+	protected double exponent = 1.0;	// of the Zipfian feature distribution
+	protected int nLabels = 10;	// ENT and NP included
+	protected int minLength = 10, maxLength = 30;	// tokens per sequence, uniform
+	protected int nFeatures = 20;	// per token
+	protected double signal = 0.25;	// probability that a feature depends on the label
+	protected double stickiness = 0.5;	// probability of repeating the previous label
+
+	private Random random;
+	private Zipf features;
+
+	public CorpusGenerator (long seed) {
+		random = new Random(seed);
+	}
+
+	public void setVocabulary (int nVocab, double exponent) {
+		this.nVocab = nVocab;
+		this.exponent = exponent;
+		features = null;
+	}
+
+	public void setLabels (int nLabels) {
+		if (nLabels < 3)
+			throw new IllegalArgumentException("needs ENT, NP and at least one other label: " + nLabels);
+		this.nLabels = nLabels;
+	}
+
+	public void setLength (int minLength, int maxLength) {
+		this.minLength = Math.max(1, minLength);
+		this.maxLength = Math.max(this.minLength, maxLength);
+	}
+
+	public void setFeatures (int nFeatures, double signal) {
+		this.nFeatures = nFeatures;
+		this.signal = signal;
+	}
+
+	public void setStickiness (double stickiness) {
+		this.stickiness = stickiness;
+	}
+
+	// writes whole sequences until at least nTokens tokens; returns the number of tokens written
+	public long write (String filename, long nTokens) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), "UTF-8"), 1 << 20);
+		try {
+			return write(out, nTokens);
+		} finally {
+			out.close();
+		}
+	}
+
+	public long write (Writer out, long nTokens) throws IOException {
+		if (features == null)
+			features = new Zipf(nVocab, exponent);
+		StringBuilder sb = new StringBuilder(16 * nFeatures);
+		int shift = Math.max(1, nVocab / nLabels);
+		long nWritten = 0, nSequences = 0;
+		while (nWritten < nTokens) {
+			int T = minLength + random.nextInt(maxLength - minLength + 1);
+			int y = -1;
+			for (int t = 0; t < T; t++) {
+				if (y < 0 || random.nextDouble() >= stickiness)
+					y = random.nextInt(nLabels);
+				sb.setLength(0);
+				sb.append(y == 0 ? "ENT" : y == 1 ? "NP" : "L" + y);
+				for (int f = 0; f < nFeatures; f++) {
+					int x = features.sample(random) - 1;
+					if (random.nextDouble() < signal)
+						x = (int) ((x + (long) y * shift) % nVocab);
+					sb.append(" f").append(x);
+				}
+				sb.append('\n');
+				out.write(sb.toString());
+			}
+			out.write('\n');
+			nWritten += T;
+			if (++nSequences % 1000000 == 0)
+				logger.info(String.format("%d sequences, %d tokens", nSequences, nWritten));
+		}
+		return nWritten;
+	}
+
+	/*
+	 * Zipf sampler over 1..n with P(k) ~ k^-s, by rejection-inversion (Hormann and Derflinger,
+	 * "Rejection-inversion to generate variates from monotone discrete distributions", 1996):
+	 * constant time and memory per sample, whatever the vocabulary size.
+	 */
+	static final class Zipf {
+		private final int n;
+		private final double s;
+		private final double hIntegralX1, hIntegralN, threshold;
+
+		Zipf (int n, double s) {
+			if (n < 1 || s <= 0)
+				throw new IllegalArgumentException("bad Zipf parameters: " + n + ", " + s);
+			this.n = n;
+			this.s = s;
+			hIntegralX1 = hIntegral(1.5) - 1.0;
+			hIntegralN = hIntegral(n + 0.5);
+			threshold = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2));
+		}
+
+		int sample (Random random) {
+			while (true) {
+				double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+				double x = hIntegralInverse(u);
+				int k = (int) (x + 0.5);
+				if (k < 1)
+					k = 1;
+				else if (k > n)
+					k = n;
+				if (k - x <= threshold || u >= hIntegral(k + 0.5) - h(k))
+					return k;
+			}
+		}
+
+		private double h (double x) {
+			return Math.exp(-s * Math.log(x));
+		}
+
+		// integral of h from 1 to x
+		private double hIntegral (double x) {
+			double logX = Math.log(x);
+			return helper2((1.0 - s) * logX) * logX;
+		}
+
+		private double hIntegralInverse (double x) {
+			double t = x * (1.0 - s);
+			if (t < -1.0)
+				t = -1.0;	// numerical safety
+			return Math.exp(helper1(t) * x);
+		}
+
+		// log1p(x) / x, continuous at 0
+		private static double helper1 (double x) {
+			return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+		}
+
+		// expm1(x) / x, continuous at 0
+		private static double helper2 (double x) {
+			return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+		}
+	}
+
+	public static void main(String[] args) {
+
+		// command line parsing
+		CmdLineParser cmdParser = new CmdLineParser();
+		CmdLineParser.Option output = cmdParser.addStringOption('o', "output");
+		CmdLineParser.Option tokens = cmdParser.addLongOption('n', "tokens");
+		CmdLineParser.Option vocab = cmdParser.addIntegerOption('V', "vocab");
+		CmdLineParser.Option exponent = cmdParser.addDoubleOption('s', "exponent");
+		CmdLineParser.Option labels = cmdParser.addIntegerOption('L', "labels");
+		CmdLineParser.Option length = cmdParser.addStringOption('T', "length");
+		CmdLineParser.Option features = cmdParser.addIntegerOption('F', "features");
+		CmdLineParser.Option signal = cmdParser.addDoubleOption('g', "signal");
+		CmdLineParser.Option seed = cmdParser.addLongOption('r', "seed");
+
+		try {
+			cmdParser.parse(args);
+		}
+		catch (CmdLineParser.OptionException e) {
+			logger.error(e.getMessage());
+			logger.error("Usage: java -cp ${CLASSPATH} openie.bench.CorpusGenerator " +
+					"[-o,--output] corpus file [-n,--tokens] number of tokens \n" +
+					"[-V,--vocab] features (default: 100000) [-s,--exponent] Zipf exponent (default: 1.0) \n" +
+					"[-L,--labels] labels, ENT and NP included (default: 10) [-T,--length] tokens per sequence, N or MIN,MAX (default: 10,30) \n" +
+					"[-F,--features] per token (default: 20) [-g,--signal] probability of a label-dependent feature (default: 0.25) \n" +
+					"[-r,--seed] random seed (default: 1)");
+			System.exit(2);
+		}
+
+		try {
+			CorpusGenerator generator = new CorpusGenerator((Long)cmdParser.getOptionValue(seed, 1L));
+			generator.setVocabulary((Integer)cmdParser.getOptionValue(vocab, 100000), (Double)cmdParser.getOptionValue(exponent, 1.0));
+			generator.setLabels((Integer)cmdParser.getOptionValue(labels, 10));
+			String[] n = ((String)cmdParser.getOptionValue(length, "10,30")).split(",");
+			generator.setLength(Integer.parseInt(n[0]), Integer.parseInt(n[n.length - 1]));
+			generator.setFeatures((Integer)cmdParser.getOptionValue(features, 20), (Double)cmdParser.getOptionValue(signal, 0.25));
+
+			long start = System.currentTimeMillis();
+			long nWritten = generator.write((String)cmdParser.getOptionValue(output), (Long)cmdParser.getOptionValue(tokens, 1000000L));
+			logger.info(String.format("%d tokens in %.1f s", nWritten, (System.currentTimeMillis() - start) / 1000.0));
+		}
+		catch (Exception e) {
+			logger.error("error " + e.getMessage());
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+}
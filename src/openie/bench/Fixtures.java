@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import openie.crf.Lattice;
+import openie.text.CompactIndex;
+import openie.text.FeatureFactory.Node;
+import openie.text.Parameter;
+import openie.text.Sequence;
+import openie.text.UnitextCorpus;
+
+/**
+ * Inputs of the benchmarks: a corpus in the @UnitextCorpus format (a fixture file, or synthetic
+ * sequences of a given length and label count), its feature strings, tagged sentences for
+ * @FeatureFactory, and lattices filled with the scores of a model. Everything is seeded.
+ */
+public class Fixtures {
+
+	static final String[] TAGS = {"NN", "NNS", "NNP", "VB", "VBD", "VBZ", "IN", "DT", "JJ", "RB", "PRP", "CC"};
+
+	public Parameter param;
+	public UnitextCorpus corpus;
+	public ArrayList<String[]> lines = new ArrayList<String[]>();	// label and feature strings of each token
+	public ArrayList<ArrayList<Node>> sentences = new ArrayList<ArrayList<Node>>();
+
+	private Random random;
+	private double[] weight;
+
+	public Fixtures (long seed) {
+		random = new Random(seed);
+	}
+
+	// reads a corpus file into a fresh model, with random weights
+	public void load (String filename) throws IOException {
+		param = new Parameter();
+		corpus = new UnitextCorpus(param);
+		corpus.setCache(false);
+		corpus.readFile(filename, true);
+		randomWeights();
+
+		ArrayList<String> words = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(filename));
+		String line;
+		while ((line = br.readLine()) != null) {
+			String[] tokens = line.trim().split(" ", -1);
+			if (line.startsWith("#") || tokens.length < 2) {
+				addSentence(words);
+				continue;
+			}
+			lines.add(tokens);
+			for (int i = 1; i < tokens.length; i++) {
+				if (tokens[i].startsWith("word="))
+					words.add(tokens[i].substring(5));
+			}
+		}
+		addSentence(words);
+		br.close();
+	}
+
+	// sequences of length T over L labels (ENT and NP included), each token with nFeatures of nVocab;
+	// see @CorpusGenerator
+	public void synthetic (int nSequences, int T, int L, int nFeatures, int nVocab) throws IOException {
+		File file = File.createTempFile("openie-bench", ".dat");
+		try {
+			CorpusGenerator generator = new CorpusGenerator(random.nextLong());
+			generator.setVocabulary(nVocab, 1.0);
+			generator.setLabels(L);
+			generator.setLength(T, T);
+			generator.setFeatures(nFeatures, 0.25);
+			generator.write(file.getPath(), (long) nSequences * T);
+			load(file.getPath());
+		} finally {
+			file.delete();
+		}
+	}
+
+	private void randomWeights () {
+		weight = new double[param.sizeParam()];
+		for (int i = 0; i < weight.length; i++)
+			weight[i] = random.nextGaussian() * 0.5;
+		param.setWeight(weight);
+	}
+
+	// a tagged sentence with the first and last words as the two entities
+	private void addSentence (ArrayList<String> words) {
+		if (words.size() >= 3) {
+			ArrayList<Node> sentence = new ArrayList<Node>();
+			for (int i = 0; i < words.size(); i++) {
+				String tag = TAGS[(words.get(i).hashCode() & 0x7fffffff) % TAGS.length];
+				String label = i == 0 || i == words.size() - 1 ? "ENT" : tag.startsWith("NN") ? "NP" : "O";
+				sentence.add(new Node(words.get(i), tag, label));
+			}
+			sentences.add(sentence);
+		}
+		words.clear();
+	}
+
+	// scores of an instance, as the CRF computes them before inference
+	public void fill (Lattice lattice, Sequence instance, double[] edgeScores) {
+		int L = param.sizeLabel();
+		double[] node = lattice.initNode(instance.size());
+		CompactIndex index = param.getCompactIndex();
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		int[] ids = instance.inputs();
+		for (int t = 0; t < instance.size(); t++) {
+			for (int m = instance.start(t); m < instance.end(t); m++) {
+				int x = ids[m];
+				for (int k = offsets[x]; k < offsets[x+1]; k++)
+					node[t * L + labels[k]] *= Math.exp(weight[params[k]]);
+			}
+		}
+		System.arraycopy(edgeScores, 0, lattice.initEdge(), 0, L * L);
+	}
+
+	// exp of the transition weights, edge[i * L + j] for (y_t = i, y_t-1 = j)
+	public double[] edgeScores () {
+		int L = param.sizeLabel();
+		int[][] edgeIndex = param.getEdgeIndex();
+		double[] edge = new double[L * L];
+		for (int i = 0; i < L; i++)
+			for (int j = 0; j < L; j++)
+				edge[i * L + j] = edgeIndex[i][j] >= 0 ? Math.exp(weight[edgeIndex[i][j]]) : 1;
+		return edge;
+	}
+}
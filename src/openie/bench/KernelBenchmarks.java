@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.bench;
+
+import jargs.gnu.CmdLineParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import openie.crf.CRF;
+import openie.crf.CompiledCRF;
+import openie.crf.Lattice;
+import openie.crf.MaxEnt;
+import openie.crf.UnitextCRF;
+import openie.text.Alphabet;
+import openie.text.FeatureCompiler;
+import openie.text.FeatureFactory;
+import openie.text.FeatureFactory.Node;
+import openie.text.Parameter;
+import openie.text.Sequence;
+import openie.text.SparseVector;
+import openie.util.Configure;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Benchmarks of the inference, training and feature kernels, on a fixture file and on synthetic
+ * sequences; see @Benchmark. Each kernel is named "kernel/fixture", e.g. "crf.viterbi/atis".
+ * With --baseline, exits with status 1 if a kernel got slower than --tolerance.
+ */
+public class KernelBenchmarks {
+
+	private static Logger logger = Logger.getLogger(KernelBenchmarks.class);
+
+	static public long FEATURE_WARMUP = 10000;	// ms at least; the JIT settles slowly on the large feature templates
+
+	protected Benchmark bench;
+
+	public KernelBenchmarks (Benchmark bench) {
+		this.bench = bench;
+	}
+
+	public void runAll (String name, Fixtures f) throws Exception {
+		final Parameter param = f.param;
+		final int N = f.corpus.size();
+		final Sequence[] instances = new Sequence[N];
+		for (int n = 0; n < N; n++)
+			instances[n] = f.corpus.get(n);
+
+		// lattices filled once; forward/backward and viterbi leave the scores untouched
+		double[] edge = f.edgeScores();
+		final Lattice[] lattices = new Lattice[N];
+		for (int n = 0; n < N; n++) {
+			lattices[n] = new Lattice(param.sizeLabel());
+			f.fill(lattices[n], instances[n], edge);
+		}
+
+		bench.run("crf.forwardBackward/" + name, new Benchmark.Kernel() {
+			int n = 0;
+			public Object run () {
+				Lattice lattice = lattices[n++ % N];
+				lattice.forward();
+				lattice.backward();
+				return lattice;
+			}
+		});
+		bench.run("crf.viterbi/" + name, new Benchmark.Kernel() {
+			int n = 0;
+			public Object run () {
+				return lattices[n++ % N].viterbi();
+			}
+		});
+
+		final CompiledCRF decoder = new CompiledCRF(param);
+		bench.run("crf.decode/" + name, new Benchmark.Kernel() {
+			int n = 0;
+			public Object run () {
+				return decoder.decode(instances[n++ % N]);
+			}
+		});
+
+		if (bench.accept("maxent.predict/" + name)) {
+			final MaxEnt maxent = new MaxEnt();
+			maxent.setParam(param);
+			Configure option = new Configure();
+			option.getHashMap().put("maxiter", "1");
+			maxent.train(f.corpus, option);
+			bench.run("maxent.predict/" + name, new Benchmark.Kernel() {
+				int n = 0;
+				public Object run () {
+					return maxent.predict(instances[n++ % N]);
+				}
+			});
+		}
+
+		// read-only lookups of the feature strings, as when packing at decoding time
+		final int nLines = f.lines.size();
+		final String[] labels = new String[nLines];
+		final String[][] inputs = new String[nLines][];
+		final double[][] values = new double[nLines][];
+		for (int i = 0; i < nLines; i++) {
+			String[] tokens = f.lines.get(i);
+			labels[i] = tokens[0];
+			inputs[i] = Arrays.copyOfRange(tokens, 1, tokens.length);
+			values[i] = new double[inputs[i].length];
+			Arrays.fill(values[i], 1);
+		}
+		bench.run("parameter.indexing/" + name, new Benchmark.Kernel() {
+			int i = 0;
+			public Object run () {
+				int k = i++ % nLines;
+				return param.indexing(labels[k], inputs[k], values[k], false);
+			}
+		});
+
+		final ArrayList<String> strings = new ArrayList<String>();
+		for (String[] input : inputs)
+			strings.addAll(Arrays.asList(input));
+		final Alphabet dict = param.getInputAlphabet();
+		bench.run("alphabet.lookup/" + name, new Benchmark.Kernel() {
+			int i = 0;
+			public Object run () {
+				return dict.lookup(strings.get(i++ % strings.size()), false);
+			}
+		});
+
+		if (f.sentences.size() > 0) {
+			// the string path of the decoder: feature strings, then read-only lookups
+			final ArrayList<ArrayList<Node>> sentences = f.sentences;
+			bench.run("featureFactory.generateFeature+pack/" + name, new Benchmark.Kernel() {
+				int i = 0;
+				public Object run () {
+					ArrayList<ArrayList<String>> featureForm = FeatureFactory.generateFeature(sentences.get(i++ % sentences.size()));
+					SparseVector[] packed = new SparseVector[featureForm.size()];
+					for (int t = 0; t < packed.length; t++)
+						packed[t] = CRF.pack(param, featureForm.get(t));
+					return packed;
+				}
+			}, FEATURE_WARMUP);
+			// the per-thread cache is filled first, as in a long-running extractor; the warm-up also
+			// covers the recompilation of FeatureFactory.generateFeature for its second sink
+			final FeatureCompiler compiler = new FeatureCompiler(param);
+			if (bench.accept("featureCompiler.compile/" + name))
+				for (ArrayList<Node> sentence : sentences)
+					compiler.compile(sentence, null);
+			bench.run("featureCompiler.compile/" + name, new Benchmark.Kernel() {
+				int i = 0;
+				public Object run () {
+					return compiler.compile(sentences.get(i++ % sentences.size()), null);
+				}
+			}, FEATURE_WARMUP);
+		}
+
+		if (bench.accept("crf.load/" + name) || bench.accept("crf.load.mapped/" + name)) {
+			UnitextCRF crf = new UnitextCRF();
+			crf.setParam(param);
+			final File serialized = File.createTempFile("openie-bench", ".ser.gz");
+			final File mapped = File.createTempFile("openie-bench", ".map");
+			serialized.deleteOnExit();
+			mapped.deleteOnExit();
+			crf.save(serialized.getPath());
+			crf.saveMapped(mapped.getPath());
+			bench.run("crf.load/" + name, new Benchmark.Kernel() {
+				public Object run () throws Exception {
+					UnitextCRF model = new UnitextCRF();
+					model.setParam(new Parameter());
+					model.load(serialized.getPath());
+					return model;
+				}
+			});
+			bench.run("crf.load.mapped/" + name, new Benchmark.Kernel() {
+				public Object run () throws Exception {
+					UnitextCRF model = new UnitextCRF();
+					model.setParam(new Parameter());
+					model.load(mapped.getPath());
+					return model;
+				}
+			});
+		}
+	}
+
+	public static void main(String[] args) {
+
+		// command line parsing
+		CmdLineParser cmdParser = new CmdLineParser();
+		CmdLineParser.Option fixture = cmdParser.addStringOption('f', "fixture");
+		CmdLineParser.Option length = cmdParser.addStringOption('T', "length");
+		CmdLineParser.Option labels = cmdParser.addStringOption('L', "labels");
+		CmdLineParser.Option nSequences = cmdParser.addIntegerOption('n', "sequences");
+		CmdLineParser.Option nFeatures = cmdParser.addIntegerOption('F', "features");
+		CmdLineParser.Option nVocab = cmdParser.addIntegerOption('V', "vocab");
+		CmdLineParser.Option warmup = cmdParser.addIntegerOption('w', "warmup");
+		CmdLineParser.Option time = cmdParser.addIntegerOption('t', "time");
+		CmdLineParser.Option iterations = cmdParser.addIntegerOption('i', "iterations");
+		CmdLineParser.Option filter = cmdParser.addStringOption('b', "bench");
+		CmdLineParser.Option output = cmdParser.addStringOption('o', "output");
+		CmdLineParser.Option baseline = cmdParser.addStringOption('B', "baseline");
+		CmdLineParser.Option tolerance = cmdParser.addDoubleOption('r', "tolerance");
+
+		try {
+			cmdParser.parse(args);
+		}
+		catch (CmdLineParser.OptionException e) {
+			logger.error(e.getMessage());
+			logger.error("Usage: java -cp ${CLASSPATH} openie.bench.KernelBenchmarks " +
+					"[-f,--fixture] corpus file, none to skip (default: atis.example.dat) \n" +
+					"[-T,--length] synthetic sequence lengths, e.g. 10,40 [-L,--labels] synthetic label counts, e.g. 10,50 \n" +
+					"[-n,--sequences] synthetic sequences (default: 200) [-F,--features] per token (default: 20) [-V,--vocab] features (default: 50000) \n" +
+					"[-w,--warmup] warm-up ms [-t,--time] ms per iteration [-i,--iterations] measured iterations \n" +
+					"[-b,--bench] regex of the kernels to run [-o,--output] CSV report \n" +
+					"[-B,--baseline] CSV report to compare with [-r,--tolerance] allowed slowdown (default: 0.1)");
+			System.exit(2);
+		}
+
+		try {
+			Benchmark bench = new Benchmark((Integer)cmdParser.getOptionValue(warmup, 1000),
+					(Integer)cmdParser.getOptionValue(time, 1000), (Integer)cmdParser.getOptionValue(iterations, 5));
+			bench.setFilter((String)cmdParser.getOptionValue(filter));
+			KernelBenchmarks kernels = new KernelBenchmarks(bench);
+
+			String fixtureFileName = (String)cmdParser.getOptionValue(fixture, "atis.example.dat");
+			if (!fixtureFileName.equals("none")) {
+				Fixtures f = new Fixtures(1);
+				f.load(fixtureFileName);
+				kernels.runAll(new File(fixtureFileName).getName().replaceFirst("\\..*$", ""), f);
+			}
+
+			String lengths = (String)cmdParser.getOptionValue(length);
+			String labelCounts = (String)cmdParser.getOptionValue(labels);
+			if (lengths != null || labelCounts != null) {
+				for (String T : (lengths != null ? lengths : "20").split(",")) {
+					for (String L : (labelCounts != null ? labelCounts : "10").split(",")) {
+						Fixtures f = new Fixtures(1);
+						f.synthetic((Integer)cmdParser.getOptionValue(nSequences, 200), Integer.parseInt(T), Integer.parseInt(L),
+								(Integer)cmdParser.getOptionValue(nFeatures, 20), (Integer)cmdParser.getOptionValue(nVocab, 50000));
+						kernels.runAll("T" + T + "L" + L, f);
+					}
+				}
+			}
+
+			PrintStream out = System.out;
+			String outputFileName = (String)cmdParser.getOptionValue(output);
+			if (outputFileName != null)
+				out = new PrintStream(new FileOutputStream(outputFileName));
+			bench.report(out);
+			if (outputFileName != null)
+				out.close();
+
+			String baselineFileName = (String)cmdParser.getOptionValue(baseline);
+			if (baselineFileName != null) {
+				int nRegressions = bench.compare(baselineFileName, (Double)cmdParser.getOptionValue(tolerance, 0.1), System.err);
+				if (nRegressions > 0) {
+					logger.error(nRegressions + " kernel(s) slower than the baseline");
+					System.exit(1);
+				}
+			}
+		}
+		catch (Exception e) {
+			logger.error("error " + e.getMessage());
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.bench;
+
+import jargs.gnu.CmdLineParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import openie.crf.CRF;
+import openie.text.Parameter;
+import openie.text.UnitextCorpus;
+import openie.util.Configure;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Scaling driver: grows one dimension of a synthetic corpus (tokens, vocabulary, labels,
+ * sequence length or features per token) while the others stay fixed, and reports for each
+ * step the reading, training and decoding throughput in tokens/s and the peak heap. The
+ * corpora are written by @CorpusGenerator.
+ */
+public class ScalingBenchmark {
+
+	private static Logger logger = Logger.getLogger(ScalingBenchmark.class);
+
+	public static final String[] DIMENSIONS = {"tokens", "vocab", "labels", "length", "features"};
+
+	protected long nTokens = 1000000;
+	protected int nVocab = 100000;
+	protected int nLabels = 10;
+	protected int length = 20;
+	protected int nFeatures = 20;
+
+	protected String classifierName = "openie.crf.UnitextCRF";
+	protected int maxiter = 1;
+	protected File workDir;
+	protected boolean keep = false;
+
+	public ScalingBenchmark (File workDir) {
+		this.workDir = workDir;
+	}
+
+	public void set (String dimension, long value) {
+		if (dimension.equals("tokens"))
+			nTokens = value;
+		else if (dimension.equals("vocab"))
+			nVocab = (int) value;
+		else if (dimension.equals("labels"))
+			nLabels = (int) value;
+		else if (dimension.equals("length"))
+			length = (int) value;
+		else if (dimension.equals("features"))
+			nFeatures = (int) value;
+		else
+			throw new IllegalArgumentException("unknown dimension: " + dimension);
+	}
+
+	public static String header () {
+		return "dimension,value,tokens,sequences,labels,params,generate_s,read_s,train_tokens_per_s,decode_tokens_per_s,peak_heap_mb";
+	}
+
+	// one step of the scan as a CSV row
+	public String step (String dimension, long value) throws Exception {
+		set(dimension, value);
+		File file = new File(workDir, String.format("scaling-%s-%d.dat", dimension, value));
+
+		long start = System.nanoTime();
+		CorpusGenerator generator = new CorpusGenerator(1);
+		generator.setVocabulary(nVocab, 1.0);
+		generator.setLabels(nLabels);
+		generator.setLength(length / 2, length + length / 2);
+		generator.setFeatures(nFeatures, 0.25);
+		generator.write(file.getPath(), nTokens);
+		double generateTime = (System.nanoTime() - start) / 1e9;
+
+		try {
+			System.gc();
+			resetPeakHeap();
+
+			start = System.nanoTime();
+			Parameter param = new Parameter();
+			UnitextCorpus corpus = new UnitextCorpus(param);
+			corpus.setCache(false);
+			corpus.readFile(file.getPath(), true);
+			double readTime = (System.nanoTime() - start) / 1e9;
+			int nElement = corpus.sizeElement();
+
+			CRF classifier = (CRF) Class.forName(classifierName).getConstructor().newInstance();
+			classifier.setParam(param);
+			Configure option = new Configure();
+			option.getHashMap().put("maxiter", Integer.toString(maxiter));
+			option.getHashMap().put("eta", "0");	// no early stop, so that every step runs maxiter epochs
+			start = System.nanoTime();
+			classifier.train(corpus, option);
+			double trainTime = (System.nanoTime() - start) / 1e9;
+
+			start = System.nanoTime();
+			for (int n = 0; n < corpus.size(); n++)
+				classifier.predict(corpus.get(n));
+			double decodeTime = (System.nanoTime() - start) / 1e9;
+
+			return String.format("%s,%d,%d,%d,%d,%d,%.2f,%.2f,%.1f,%.1f,%.1f", dimension, value, nElement, corpus.size(),
+					param.sizeLabel(), param.sizeParam(), generateTime, readTime,
+					(double) nElement * maxiter / trainTime, nElement / decodeTime, peakHeap() / 1048576.0);
+		} finally {
+			if (!keep)
+				file.delete();
+		}
+	}
+
+	private static void resetPeakHeap () {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	// sum of the peaks of the heap pools since the last reset; an upper bound of the peak heap
+	private static long peakHeap () {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	public static void main(String[] args) {
+
+		// command line parsing
+		CmdLineParser cmdParser = new CmdLineParser();
+		CmdLineParser.Option dimension = cmdParser.addStringOption('d', "dimension");
+		CmdLineParser.Option values = cmdParser.addStringOption('v', "values");
+		CmdLineParser.Option tokens = cmdParser.addLongOption('n', "tokens");
+		CmdLineParser.Option vocab = cmdParser.addIntegerOption('V', "vocab");
+		CmdLineParser.Option labels = cmdParser.addIntegerOption('L', "labels");
+		CmdLineParser.Option length = cmdParser.addIntegerOption('T', "length");
+		CmdLineParser.Option features = cmdParser.addIntegerOption('F', "features");
+		CmdLineParser.Option classifier = cmdParser.addStringOption('c', "class");
+		CmdLineParser.Option maxiter = cmdParser.addIntegerOption('i', "maxiter");
+		CmdLineParser.Option workDir = cmdParser.addStringOption('D', "dir");
+		CmdLineParser.Option keep = cmdParser.addBooleanOption('k', "keep");
+		CmdLineParser.Option output = cmdParser.addStringOption('o', "output");
+
+		try {
+			cmdParser.parse(args);
+		}
+		catch (CmdLineParser.OptionException e) {
+			logger.error(e.getMessage());
+			logger.error("Usage: java -cp ${CLASSPATH} openie.bench.ScalingBenchmark " +
+					"[-d,--dimension] {tokens, vocab, labels, length, features} [-v,--values] comma-separated values, e.g. 100000,1000000 \n" +
+					"[-n,--tokens] (default: 1000000) [-V,--vocab] (default: 100000) [-L,--labels] (default: 10) \n" +
+					"[-T,--length] mean tokens per sequence (default: 20) [-F,--features] per token (default: 20) \n" +
+					"[-c,--class] classifier (default: openie.crf.UnitextCRF) [-i,--maxiter] training epochs (default: 1) \n" +
+					"[-D,--dir] directory of the generated corpora [{-k,--keep}] keep them [-o,--output] CSV report");
+			System.exit(2);
+		}
+
+		try {
+			String dimensionName = (String)cmdParser.getOptionValue(dimension, "tokens");
+			ScalingBenchmark bench = new ScalingBenchmark(new File((String)cmdParser.getOptionValue(workDir, System.getProperty("java.io.tmpdir"))));
+			bench.nTokens = (Long)cmdParser.getOptionValue(tokens, bench.nTokens);
+			bench.nVocab = (Integer)cmdParser.getOptionValue(vocab, bench.nVocab);
+			bench.nLabels = (Integer)cmdParser.getOptionValue(labels, bench.nLabels);
+			bench.length = (Integer)cmdParser.getOptionValue(length, bench.length);
+			bench.nFeatures = (Integer)cmdParser.getOptionValue(features, bench.nFeatures);
+			bench.classifierName = (String)cmdParser.getOptionValue(classifier, bench.classifierName);
+			bench.maxiter = (Integer)cmdParser.getOptionValue(maxiter, bench.maxiter);
+			bench.keep = (Boolean)cmdParser.getOptionValue(keep, Boolean.FALSE);
+
+			PrintStream out = System.out;
+			String outputFileName = (String)cmdParser.getOptionValue(output);
+			if (outputFileName != null)
+				out = new PrintStream(new FileOutputStream(outputFileName));
+			out.println(header());
+			for (String value : ((String)cmdParser.getOptionValue(values, "100000,1000000")).split(",")) {
+				out.println(bench.step(dimensionName, (long) Double.parseDouble(value)));
+				out.flush();
+			}
+			if (outputFileName != null)
+				out.close();
+		}
+		catch (Exception e) {
+			logger.error("error " + e.getMessage());
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+}
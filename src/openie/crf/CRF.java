@@ -39,12 +39,17 @@ public abstract class CRF {
     
     
 	public void load (String filename) throws IOException, ClassNotFoundException {
+		if (MappedModel.accept(filename)) {
+			loadMapped(filename);
+			return;
+		}
 		FileInputStream fis = new FileInputStream(filename);
 		GZIPInputStream gzfis = new GZIPInputStream(fis);
 		ObjectInputStream ois = new ObjectInputStream(gzfis);
 		readObject(ois);
 		ois.close(); fis.close();
 		param.makeEdgeIndex(false);
+		param.freeze();
 	}
 
 	public void save (String filename) throws IOException {
@@ -55,6 +60,20 @@ public abstract class CRF {
 		oos.close(); fos.close();
 	}    
 	
+	// memory-mapped, read-only model; see @MappedModel
+	protected void loadMapped (String filename) throws IOException, ClassNotFoundException {
+		MappedModel model = MappedModel.open(filename);
+		if (!accepts(model.getModelType()))
+			throw new ClassNotFoundException("Doen't match the model class");
+		param = model.getParam();
+		param.makeEdgeIndex(false);
+	}
+
+	// writes the model in the mapped layout, which @load also accepts
+	public void saveMapped (String filename) throws IOException {
+		MappedModel.write(filename, getClass().getName(), param);
+	}
+	
 	private void writeObject (ObjectOutputStream out) throws IOException {
 		out.writeInt(CURRENT_SERIAL_VERSION);
 		out.writeObject(getClass().getName());
@@ -64,11 +83,22 @@ public abstract class CRF {
 	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
 		int version = in.readInt();
 		String modelType = (String) in.readObject();
-		if (!modelType.equals(getClass().getName()))
+		if (!accepts(modelType))
 			throw new ClassNotFoundException("Doen't match the model class");
 		param = (Parameter) in.readObject();
 	}
     
+	// models of this class or of a subclass, e.g. a @UnitextCRF trained by @PerceptronCRF
+	protected boolean accepts (String modelType) {
+		if (modelType.equals(getClass().getName()))
+			return true;
+		try {
+			return getClass().isAssignableFrom(Class.forName(modelType, false, getClass().getClassLoader()));
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+    
     public Parameter getParam() {
     	return param;
     }
@@ -78,7 +108,12 @@ public abstract class CRF {
     }
     
 	public SparseVector pack (ArrayList<String> tokens) {
-		SparseVector ret = new SparseVector();
+		return pack(param, tokens);
+	}
+	
+	// packs one line of the feature form (label, features...) with read-only lookups
+	public static SparseVector pack (Parameter param, ArrayList<String> tokens) {
+		SparseVector ret = new SparseVector(-1, tokens.size() - 1);
 		String[] inputs = new String[tokens.size() - 1];
 		double[] values = new double[tokens.size() - 1];
 		for (int i = 1; i < tokens.size(); i++) {
@@ -101,6 +136,7 @@ public abstract class CRF {
 			if (ids[i] >= 0)
 				ret.addElement(ids[i], values[i-1]);
 		}
+		ret.trim();
 		
 		return ret;
 	}
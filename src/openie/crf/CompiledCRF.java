@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.crf;
+
+import java.util.ArrayList;
+
+import openie.text.Alphabet;
+import openie.text.CompactIndex;
+import openie.text.Parameter;
+import openie.text.Sequence;
+
+/**
+ * Immutable, thread-safe decoder of a trained linear-chain CRF. The weights are
+ * copied once and shared read-only; the per-call lattice lives in a thread-local
+ * workspace, so one instance can serve any number of request threads.
+ */
+public class CompiledCRF {
+
+	protected final Parameter param;	// dictionaries; only read after compilation
+	protected final int L;
+	protected final double[] weight;
+	protected final CompactIndex index;
+	protected final double[] logEdge;	// transition weights, L x L; see @Lattice.maxPlus
+	protected final double[] edge;	// exp(logEdge), for the forward-backward of @nBest
+	protected final boolean constrained;	// see @Lattice.constrain
+
+	private final ThreadLocal<Lattice> workspace = new ThreadLocal<Lattice>() {
+		@Override
+		protected Lattice initialValue () {
+			return new Lattice(L);
+		}
+	};
+
+	public CompiledCRF (Parameter param) {
+		this(param, false);
+	}
+
+	public CompiledCRF (Parameter param, boolean constrained) {
+		this.param = param;
+		this.constrained = constrained;
+		this.L = param.sizeLabel();
+		this.weight = param.getWeight();
+		this.index = param.getCompactIndex();
+
+		int[][] edgeIndex = param.getEdgeIndex();
+		logEdge = new double[L * L];
+		edge = new double[L * L];
+		for (int i = 0; i < L; i++) {
+			for (int j = 0; j < L; j++) {
+				logEdge[i * L + j] = edgeIndex[i][j] >= 0 ? weight[edgeIndex[i][j]] : 0;
+				edge[i * L + j] = Math.exp(logEdge[i * L + j]);
+			}
+		}
+	}
+
+	// best label ids of a packed instance
+	public int[] decode (Sequence instance) {
+		Lattice lattice = workspace.get();
+		computeNode(instance, lattice);
+
+		return lattice.maxPlus(logEdge);
+	}
+
+	// best labels of an instance in the feature (string) form; see @FeatureFactory
+	public String[] decode (ArrayList<ArrayList<String>> stringInstances) {
+		return toLabels(decode(pack(stringInstances)));
+	}
+
+	// k best label sequences of a packed instance with their probabilities, from one lattice:
+	// if marginals (T x L) is given, it also receives p(y_t = i | x)
+	public ArrayList<Hypothesis> nBest (Sequence instance, int k, double[][] marginals) {
+		Lattice lattice = workspace.get();
+		computeNode(instance, lattice);
+
+		double[] scores = new double[k];
+		ArrayList<int[]> outcomes = lattice.nBest(logEdge, k, scores);
+
+		// back to potentials for the normalizer and the marginals
+		double[] node = lattice.node;
+		for (int n = 0; n < (lattice.length() - 1) * L; n++)
+			node[n] = Math.exp(node[n]);
+		System.arraycopy(edge, 0, lattice.initEdge(), 0, edge.length);
+		lattice.forward();
+		double logZ = lattice.logZ();
+		if (marginals != null) {
+			lattice.backward();
+			for (int t = 0; t < instance.size(); t++)
+				System.arraycopy(lattice.nodeMarginals(t), 0, marginals[t], 0, L);
+		}
+
+		ArrayList<Hypothesis> ret = new ArrayList<Hypothesis>(outcomes.size());
+		for (int n = 0; n < outcomes.size(); n++)
+			ret.add(new Hypothesis(outcomes.get(n), scores[n], Math.exp(scores[n] - logZ)));
+		return ret;
+	}
+
+	// same as above for an instance in the feature (string) form; hypotheses carry their label strings
+	public ArrayList<Hypothesis> nBest (ArrayList<ArrayList<String>> stringInstances, int k, double[][] marginals) {
+		ArrayList<Hypothesis> ret = nBest(pack(stringInstances), k, marginals);
+		for (Hypothesis h : ret)
+			h.labels = toLabels(h.outcome);
+		return ret;
+	}
+
+	public String[] toLabels (int[] outcome) {
+		Alphabet labelDict = param.getLabelAlphabet();
+		String[] output = new String[outcome.length];
+		for (int i = 0; i < outcome.length; i++)
+			output[i] = (String) labelDict.getObject(outcome[i]);
+
+		return output;
+	}
+
+	private final Sequence pack (ArrayList<ArrayList<String>> stringInstances) {
+		Sequence instance = new Sequence();
+		for (ArrayList<String> stringInstance : stringInstances)
+			instance.addElement(CRF.pack(param, stringInstance));
+		return instance;
+	}
+
+	// node log-potentials, i.e. the weight sums without exponentiating them
+	private final void computeNode (Sequence instance, Lattice lattice) {
+		int T = instance.size();
+		double[] nodeScore = lattice.initLogNode(T);
+		if (constrained)
+			lattice.constrain(instance);
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		int[] ids = instance.inputs();
+		double[] vals = instance.values();
+
+		for (int t = 0; t < T; t++) {
+			int row = t * L, lo = lattice.lower(t), hi = lattice.upper(t);
+			for (int m = instance.start(t); m < instance.end(t); m++) {
+				int x = ids[m];
+				for (int k = offsets[x]; k < offsets[x+1]; k++) {
+					int y = labels[k];
+					if (y >= lo && y < hi)
+						nodeScore[row + y] += weight[params[k]] * (vals == null ? 1 : vals[m]);
+				}
+			}
+		}
+	}
+
+	public Parameter getParam () {
+		return param;
+	}
+
+	public int sizeLabel () {
+		return L;
+	}
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.crf;
+
+/**
+ * One of the n-best label sequences of an instance; see @CompiledCRF.nBest
+ */
+public class Hypothesis {
+
+	public int[] outcome;	// label ids
+	public String[] labels;	// label strings, if decoded from the feature (string) form
+	public double score;	// log-potential, i.e. the sum of the weights along the path
+	public double prob;	// p(outcome | x)
+
+	public Hypothesis (int[] outcome, double score, double prob) {
+		this.outcome = outcome;
+		this.score = score;
+		this.prob = prob;
+	}
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.crf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import openie.text.Alphabet;
+import openie.text.Sequence;
+
+/**
+ * Per-sequence inference state of a linear-chain CRF (node/edge scores, scaled
+ * forward/backward vectors and the normalizer). One lattice is owned by one thread
+ * at a time; the model parameters themselves are never stored here.
+ *
+ * All matrices are flat row-major arrays, e.g. node[t * L + y], which grow to the
+ * longest sequence seen and are reused afterwards, so steady-state inference is garbage-free.
+ */
+public class Lattice {
+
+	// pre-defined OpenIE labels; see @UnitextCorpus.readFile
+	public static final int ENT = 0;
+	public static final int NP = 1;
+
+	protected int L; // number of labels
+	protected int T; // number of positions, i.e. tokens + the final state
+	protected int capacity; // number of positions the buffers can hold
+
+	protected double[] node;	// T x L
+	protected double[] edge;	// L x L; edge[i * L + j] = score of (y_t = i, y_t-1 = j)
+	protected double[] alpha;	// T x L
+	protected double[] beta;	// T x L
+	protected double[] alphaScale;
+	protected double[] betaScale;
+	protected double[] scaleProduct;
+	protected double[] marginal;	// L; see @nodeMarginals
+	protected double Z;
+
+	// allowed labels of position t are [lower[t], upper[t]); see @constrain
+	protected int[] lower;
+	protected int[] upper;
+
+	// viterbi
+	protected double[] delta;	// T x L
+	protected int[] psi;	// T x L
+	protected int[] path;
+
+	// k-best viterbi; the r-th best partial path ending in (t, i) is at (t * L + i) * k + r
+	protected int k;
+	protected double[] kDelta;	// T x L x k, sorted in decreasing order
+	protected int[] kPsi;	// previous label
+	protected int[] kRank;	// rank of the path through the previous label
+	protected int[] kCount;	// T x L; number of partial paths kept
+
+	public Lattice (int L) {
+		this.L = L;
+		this.edge = new double[L * L];
+		this.marginal = new double[L];
+		ensureCapacity(16);
+	}
+
+	private final void ensureCapacity (int n) {
+		if (n <= capacity)
+			return;
+		capacity = Math.max(n, capacity * 2);
+		node = new double[capacity * L];
+		alpha = new double[capacity * L];
+		beta = new double[capacity * L];
+		delta = new double[capacity * L];
+		psi = new int[capacity * L];
+		alphaScale = new double[capacity];
+		betaScale = new double[capacity];
+		scaleProduct = new double[capacity];
+		path = new int[capacity];
+		lower = new int[capacity];
+		upper = new int[capacity];
+	}
+
+	// (T+1) x L node scores, initialized to one; the last row stands for the final state
+	public double[] initNode (int nTokens) {
+		T = nTokens + 1;
+		ensureCapacity(T);
+		Arrays.fill(node, 0, T * L, 1);
+		Arrays.fill(lower, 0, T, 0);
+		Arrays.fill(upper, 0, T, L);
+		return node;
+	}
+
+	// true if the labels of a model have ENT and NP at the ids @constrain assumes
+	public static boolean canConstrain (Alphabet labelDict) {
+		return labelDict.lookup("ENT", false) == ENT && labelDict.lookup("NP", false) == NP;
+	}
+
+	// restricts each position to the labels allowed by its observed label (the first column):
+	// ENT and NP positions are fixed by the input, all the others take one of the remaining labels
+	public final void constrain (Sequence instance) {
+		for (int t = 0; t < T - 1; t++) {
+			int y = instance.label(t);
+			if (y == ENT || y == NP) {
+				lower[t] = y;
+				upper[t] = y + 1;
+			} else {
+				lower[t] = NP + 1;
+				upper[t] = L;
+			}
+		}
+	}
+
+	public final int lower (int t) {
+		return lower[t];
+	}
+
+	public final int upper (int t) {
+		return upper[t];
+	}
+
+	// (T+1) x L node log-potentials, initialized to zero; see @maxPlus
+	public double[] initLogNode (int nTokens) {
+		initNode(nTokens);
+		Arrays.fill(node, 0, T * L, 0);
+		return node;
+	}
+
+	public double[] initEdge () {
+		Arrays.fill(edge, 1);
+		return edge;
+	}
+
+	public int length () {
+		return T;
+	}
+
+	public int sizeLabel () {
+		return L;
+	}
+
+	// forward
+	public final void forward () {
+		double sum = 0.0;
+
+		// init
+		Arrays.fill(alpha, 0, L, 0);
+		for (int i = lower[0]; i < upper[0]; i++) {
+			alpha[i] = node[i];
+			sum += alpha[i];
+		}
+		for (int i = lower[0]; i < upper[0]; i++)
+			alpha[i] /= sum;
+		alphaScale[0] = sum;
+
+		// recursion
+		for (int t = 1; t < T - 1; t++) {
+			int cur = t * L, prev = cur - L;
+			int lo = lower[t-1], hi = upper[t-1];
+			Arrays.fill(alpha, cur, cur + L, 0);
+			sum = 0.0;
+			for (int i = lower[t]; i < upper[t]; i++) {
+				double a = 0.0;
+				int e = i * L;
+				for (int j = lo; j < hi; j++)
+					a += alpha[prev + j] * edge[e + j];
+				a *= node[cur + i];
+				alpha[cur + i] = a;
+				sum += a;
+			}
+
+			for (int i = lower[t]; i < upper[t]; i++)
+				alpha[cur + i] /= sum;
+			alphaScale[t] = sum;
+		}
+
+		// final
+		int last = (T - 1) * L;
+		Arrays.fill(alpha, last, last + L, 0);
+		for (int i = 0; i < L; i++)
+			alpha[last] += alpha[last - L + i];
+		alphaScale[T-1] = alpha[last];
+
+		Z = alpha[last]; // = 1
+	}
+
+	// backward
+	public final void backward () {
+		double sum = 0.0;
+
+		// final
+		int last = (T - 1) * L;
+		Arrays.fill(beta, 0, T * L, 0);
+		beta[last] = 1.0;
+		betaScale[T-1] = 1.0;
+		for (int i = lower[T-2]; i < upper[T-2]; i++) {
+			beta[last - L + i] = 1.0;
+			sum += 1.0;
+		}
+		for (int i = lower[T-2]; i < upper[T-2]; i++)
+			beta[last - L + i] /= sum;
+		betaScale[T-2] = sum;
+
+		// recursion
+		for (int t = T-2; t >= 1; t--) {
+			int cur = t * L, prev = cur - L;
+			int lo = lower[t], hi = upper[t];
+			sum = 0.0;
+			for (int i = lower[t-1]; i < upper[t-1]; i++) {
+				double b = 0.0;
+				for (int j = lo; j < hi; j++)
+					b += beta[cur + j] * node[cur + j] * edge[j * L + i];
+				beta[prev + i] = b;
+				sum += b;
+			}
+
+			for (int i = lower[t-1]; i < upper[t-1]; i++)
+				beta[prev + i] /= sum;
+			betaScale[t-1] = sum;
+		}
+
+		// products of the scale factors, used for marginals
+		double prod = 1.0;
+		for (int t = T - 1; t >= 0; t--) {
+			prod *= (betaScale[t] / alphaScale[t]);
+			scaleProduct[t] = prod;
+		}
+	}
+
+	// p(y_t = i | x); requires forward() and backward()
+	public final double nodeMarginal (int t, int i) {
+		return alpha[t * L + i] * beta[t * L + i] / Z * scaleProduct[t+1] * betaScale[t];
+	}
+
+	// p(y_t = . | x) into the internal buffer; valid until the next call
+	public final double[] nodeMarginals (int t) {
+		for (int i = 0; i < L; i++)
+			marginal[i] = nodeMarginal(t, i);
+		return marginal;
+	}
+
+	// p(y_t = i, y_t-1 = j | x) for t > 0; requires forward() and backward()
+	public final double edgeMarginal (int t, int i, int j) {
+		return alpha[(t-1) * L + j] * beta[t * L + i] * node[t * L + i] * edge[i * L + j] / Z * scaleProduct[t];
+	}
+
+	// best label sequence into a new array
+	public final int[] argmax () {
+		return Arrays.copyOf(viterbi(), T - 1);
+	}
+
+	// best label sequence into the internal buffer; valid until the next call
+	public final int[] viterbi () {
+		// init
+		for (int i = 0; i < L; i++) {
+			psi[i] = 0;
+			delta[i] = i >= lower[0] && i < upper[0] ? Math.log(node[i]) : Double.NEGATIVE_INFINITY;
+		}
+
+		// recursion
+		for (int t = 1; t < T-1; t++) {
+			int cur = t * L, prev = cur - L;
+			int lo = lower[t-1], hi = upper[t-1];
+			Arrays.fill(delta, cur, cur + L, Double.NEGATIVE_INFINITY);
+			for (int i = lower[t]; i < upper[t]; i++) {
+				int maxPsi = lo;
+				double maxDelta = Double.NEGATIVE_INFINITY;
+				for (int j = lo; j < hi; j++) {
+					double val = delta[prev + j] + Math.log(edge[i * L + j]);
+					if (val > maxDelta) {
+						maxDelta = val;
+						maxPsi = j;
+					}
+				}
+				maxDelta += Math.log(node[cur + i]);
+				psi[cur + i] = maxPsi;
+				delta[cur + i] = maxDelta;
+			}
+		}
+		return backtrack();
+	}
+
+	// best label sequence when node and edge hold log-potentials (see @initLogNode), i.e. the
+	// max-plus recursion without any transcendental call; logEdge[i * L + j] as in @edge
+	public final int[] maxPlus (double[] logEdge) {
+		// init
+		for (int i = 0; i < L; i++) {
+			psi[i] = 0;
+			delta[i] = i >= lower[0] && i < upper[0] ? node[i] : Double.NEGATIVE_INFINITY;
+		}
+
+		// recursion
+		for (int t = 1; t < T-1; t++) {
+			int cur = t * L, prev = cur - L;
+			int lo = lower[t-1], hi = upper[t-1];
+			Arrays.fill(delta, cur, cur + L, Double.NEGATIVE_INFINITY);
+			for (int i = lower[t]; i < upper[t]; i++) {
+				int e = i * L;
+				int maxPsi = lo;
+				double maxDelta = Double.NEGATIVE_INFINITY;
+				for (int j = lo; j < hi; j++) {
+					double val = delta[prev + j] + logEdge[e + j];
+					if (val > maxDelta) {
+						maxDelta = val;
+						maxPsi = j;
+					}
+				}
+				psi[cur + i] = maxPsi;
+				delta[cur + i] = maxDelta + node[cur + i];
+			}
+		}
+
+		return Arrays.copyOf(backtrack(), T - 1);
+	}
+
+	// k best label sequences (in decreasing order of score) when node and edge hold log-potentials,
+	// i.e. @maxPlus keeping the k best partial paths per state; scores receives their log-potentials
+	public final ArrayList<int[]> nBest (double[] logEdge, int k, double[] scores) {
+		if (kDelta == null || this.k != k || kCount.length < capacity * L) {
+			this.k = k;
+			kDelta = new double[capacity * L * k];
+			kPsi = new int[capacity * L * k];
+			kRank = new int[capacity * L * k];
+			kCount = new int[capacity * L];
+		}
+
+		// init
+		Arrays.fill(kCount, 0, L, 0);
+		for (int i = lower[0]; i < upper[0]; i++) {
+			kDelta[i * k] = node[i];
+			kCount[i] = 1;
+		}
+
+		// recursion
+		for (int t = 1; t < T-1; t++) {
+			int cur = t * L, prev = cur - L;
+			Arrays.fill(kCount, cur, cur + L, 0);
+			for (int i = lower[t]; i < upper[t]; i++) {
+				int e = i * L, s = (cur + i) * k;
+				for (int j = lower[t-1]; j < upper[t-1]; j++) {
+					int p = (prev + j) * k;
+					for (int r = 0; r < kCount[prev + j]; r++) {
+						if (!insert(s, cur + i, kDelta[p + r] + logEdge[e + j], j, r))
+							break;	// the remaining paths through j are worse
+					}
+				}
+				for (int r = 0; r < kCount[cur + i]; r++)
+					kDelta[s + r] += node[cur + i];
+			}
+		}
+
+		// last state; gather the k best over the labels of the last token
+		int last = (T - 1) * L;
+		kCount[last] = 0;
+		for (int i = lower[T-2]; i < upper[T-2]; i++) {
+			int p = (last - L + i) * k;
+			for (int r = 0; r < kCount[last - L + i]; r++) {
+				if (!insert(last * k, last, kDelta[p + r], i, r))
+					break;
+			}
+		}
+
+		// back-tracking
+		ArrayList<int[]> ret = new ArrayList<int[]>(kCount[last]);
+		for (int n = 0; n < kCount[last]; n++) {
+			int[] outcome = new int[T - 1];
+			int y = kPsi[last * k + n], r = kRank[last * k + n];
+			for (int t = T-2; t >= 0; t--) {
+				outcome[t] = y;
+				int idx = (t * L + y) * k + r;
+				y = kPsi[idx];
+				r = kRank[idx];
+			}
+			if (scores != null)
+				scores[n] = kDelta[last * k + n];
+			ret.add(outcome);
+		}
+		return ret;
+	}
+
+	// inserts a partial path into the sorted k-best list of state; false if it did not make the list
+	private final boolean insert (int base, int state, double val, int prev_y, int rank) {
+		int n = kCount[state];
+		if (n == k && val <= kDelta[base + k - 1])
+			return false;
+		int pos = n < k ? n : k - 1;
+		while (pos > 0 && kDelta[base + pos - 1] < val) {
+			kDelta[base + pos] = kDelta[base + pos - 1];
+			kPsi[base + pos] = kPsi[base + pos - 1];
+			kRank[base + pos] = kRank[base + pos - 1];
+			pos--;
+		}
+		kDelta[base + pos] = val;
+		kPsi[base + pos] = prev_y;
+		kRank[base + pos] = rank;
+		if (n < k)
+			kCount[state] = n + 1;
+		return true;
+	}
+
+	// log of the normalizer; only valid after forward()
+	public final double logZ () {
+		double sum = 0.0;
+		for (int t = 0; t < T; t++)
+			sum += Math.log(alphaScale[t]);
+		return sum;
+	}
+
+	// picks the best last label and follows psi back; shared by @viterbi and @maxPlus
+	private final int[] backtrack () {
+		// last state
+		int last = (T - 1) * L;
+		for (int i = 0; i < L; i++) {
+			psi[last + i] = -1;
+			delta[last + i] = Double.NEGATIVE_INFINITY;
+		}
+		int maxPsi = lower[T-2]; double maxDelta = Double.NEGATIVE_INFINITY;
+		for (int i = lower[T-2]; i < upper[T-2]; i++) {
+			if (delta[last - L + i] > maxDelta) {
+				maxDelta = delta[last - L + i];
+				maxPsi = i;
+			}
+		}
+		psi[last] = maxPsi;
+		delta[last] = maxDelta;
+
+		// back-tracking
+		int prev_y = 0;
+		for (int t = T-1; t >= 1; t--) {
+			int y = psi[t * L + prev_y];
+			prev_y = y;
+			path[t-1] = y;
+		}
+
+		return path;
+	}
+
+	// probability of the reference label sequence; only valid after forward()
+	public final double likelihood (Sequence instance) {
+		int n = instance.size();
+		double prob = 1.0;
+
+		double trans = 1.0;
+		int prev_y = 0, y = 0;
+
+		for (int t = 0; t < n+1; t++) {
+			if (t < n) {
+				y = instance.label(t);
+				if (t > 0)
+					trans = edge[y * L + prev_y];
+				prob *= node[t * L + y] * trans;
+			} else {
+				y = 0;
+			}
+
+			prev_y = y;
+			prob /= alphaScale[t];
+		}
+
+		return prob / Z;
+	}
+
+}
@@ -7,16 +7,27 @@
 
 package openie.crf;
 
-import gnu.trove.map.hash.*;
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.map.hash.TIntDoubleHashMap;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.apache.log4j.Logger;
 
 import openie.text.*;
-import openie.text.SparseVector.IntElement;
 import openie.util.Configure;
+import openie.util.OWLQN;
+import openie.util.TrainingMetrics;
 
 public class MaxEnt extends CRF {
 
@@ -27,24 +38,33 @@ public class MaxEnt extends CRF {
 	private double opt_initLearnRate = 0.5;
 	private double opt_maxiter = 100;
 	private double opt_eta = 1E-05;
+	private int opt_threads = 1;	// > 1 enables lock-free (Hogwild) training
+	private String opt_optimizer = "sgd";	// sgd or owlqn
+	private int opt_memory = 10;	// number of correction pairs kept by owlqn
 
 	private double[] weight;	// weight vector
 	private double[] penalty;	// used for SGD-L1 
+	private double l1Norm;	// sum of |weight| during SGD, from the changes made by the shards; see @update
+	private int nNonZero;
+	
+	private transient TrainingMetrics metrics;
+	
+	// relaxed (opaque) access to the weight and penalty arrays shared by Hogwild workers
+	private static final VarHandle SHARED = MethodHandles.arrayElementVarHandle(double[].class);
 	
 	public MaxEnt() {}
 
 	public int predict (SparseVector elem) {
 		double[] prob = new double[param.sizeLabel()];
-		return argmax(elem, prob);
+		return argmax(elem.getIds(), 0, elem.size(), prob);
 	}
 	
 	@Override
 	public int[] predict (Sequence example) {
 		int[] pred = new int[example.size()];
-		for (int i = 0; i < pred.length; i++) {
-			double[] prob = new double[param.sizeLabel()];
-			pred[i] = argmax(example.at(i), prob);
-		}
+		double[] prob = new double[param.sizeLabel()];
+		for (int i = 0; i < pred.length; i++)
+			pred[i] = argmax(example.inputs(), example.start(i), example.end(i), prob);
 		return pred;
 	}
 	
@@ -54,9 +74,9 @@ public class MaxEnt extends CRF {
 		Iterator<Sequence> iter = testSet.iterator();
 		while (iter.hasNext()) {
 			Sequence instance = iter.next();
-			for (SparseVector elem : instance.getSeq()) {
-				int outcome = predict(elem);
-				if (outcome == elem.getLabel()) 
+			int[] outcome = predict(instance);
+			for (int t = 0; t < instance.size(); t++) {
+				if (outcome[t] == instance.label(t)) 
 					nCorrect ++;
 			}
 		}
@@ -80,69 +100,180 @@ public class MaxEnt extends CRF {
 			this.opt_initLearnRate = option.getDouble("init_learning_rate");
 		if (option.contains("eta"))
 			this.opt_eta = option.getDouble("eta");
+		if (option.contains("threads"))
+			this.opt_threads = option.getInteger("threads");
+		if (option.contains("optimizer"))
+			this.opt_optimizer = option.getString("optimizer").toLowerCase();
+		if (option.contains("memory"))
+			this.opt_memory = option.getInteger("memory");
 		
-		runSGDL1(trainSet);
+		metrics = TrainingMetrics.fromOption(option, getClass().getSimpleName());
+		try {
+			if (opt_optimizer.equals("owlqn"))
+				runOWLQN(trainSet);
+			else
+				runSGDL1(trainSet);
+		} finally {
+			metrics.close();
+		}
 	}
 	
 	private final void runSGDL1 (UnitextCorpus trainSet) {
 		weight = param.getWeight();
 		penalty = new double[weight.length];
-		double[] prob = new double[param.sizeLabel()];
 		
 		Arrays.fill(weight, 0);
 		Arrays.fill(penalty, 0);
 		param.clear();
+		l1Norm = 0;
+		nNonZero = 0;
 		
 		double cumulativeRate = 0;
 		double prevLoglikeli = 0;
 		int N = trainSet.sizeElement();
 		
-		// iteration
-		for (int niter = 0; niter < opt_maxiter; niter++) {
-			int nCorrect = 0;
-			double learningRate = opt_initLearnRate / ( 1.0 + niter / N );
-			cumulativeRate += learningRate * opt_l1prior / N;
-			double currentLoglikeli = 0;
-			
-			trainSet.shuffle(new java.util.Random());
-			Iterator<Sequence> iter = trainSet.iterator();
-			while (iter.hasNext()) {
-				Sequence instance = iter.next();
+		// shards of the corpus; with more than one thread, they are trained asynchronously 
+		// without locking, i.e. Hogwild (Niu et al., 2011)
+		Shard[] shards = new Shard[opt_threads];
+		for (int k = 0; k < shards.length; k++)
+			shards[k] = new Shard(trainSet, trainSet.size() * k / shards.length, trainSet.size() * (k + 1) / shards.length, opt_threads > 1);
+		ExecutorService pool = opt_threads > 1 ? Executors.newFixedThreadPool(opt_threads) : null;
+		if (pool != null)
+			logger.info(String.format("hogwild training: %d threads", opt_threads));
+		
+		try {
+			// iteration
+			for (int niter = 0; niter < opt_maxiter; niter++) {
+				int nCorrect = 0;
+				double learningRate = opt_initLearnRate / ( 1.0 + niter / N );
+				cumulativeRate += learningRate * opt_l1prior / N;
+				double currentLoglikeli = 0;
 				
-				for (SparseVector elem : instance.getSeq()) {
-					int outcome = argmax(elem, prob);
-					if (outcome == elem.getLabel()) 
-						nCorrect ++;
-					
-					// gradient update
-					update(elem, prob, learningRate, cumulativeRate);
-					// pseudo loglikelihood  
-					currentLoglikeli -= Math.log(prob[elem.getLabel()]);
+				trainSet.shuffle(new java.util.Random());
+				metrics.startEpoch();
+				long startTime = System.nanoTime();
+				for (Shard shard : shards)
+					shard.setRate(learningRate, cumulativeRate);
+				if (pool == null)
+					shards[0].call();
+				else {
+					List<Future<Shard>> futures = pool.invokeAll(Arrays.asList(shards));
+					for (Future<Shard> future : futures)
+						future.get();
 				}
+				double elapsed = (System.nanoTime() - startTime) / 1E09;
+				for (Shard shard : shards) {
+					nCorrect += shard.nCorrect;
+					currentLoglikeli += shard.loglikeli;
+					l1Norm += shard.l1Change;
+					nNonZero += shard.nonZeroChange;
+				}
+				
+				currentLoglikeli += opt_l1prior * l1Norm;
+				
+				logger.info(String.format("[%d] %e %.4f (%.0f tokens/sec)", niter+1, currentLoglikeli, (double) nCorrect / N, N / elapsed ));
+				metrics.endEpoch(niter+1, N, trainSet.size(), currentLoglikeli, (double) nCorrect / N, l1Norm, nNonZero);
+				if ( Math.abs(currentLoglikeli - prevLoglikeli) / (Math.abs(currentLoglikeli) + Math.abs(prevLoglikeli)) < opt_eta)
+					break;
+				prevLoglikeli = currentLoglikeli;
 			}
-			
-			for (int i = 0; i < weight.length; i++)
-				currentLoglikeli += opt_l1prior * Math.abs(weight[i]);
-			
-			logger.info(String.format("[%d] %e %.4f", niter+1, currentLoglikeli, (double) nCorrect / N ));
-			if ( Math.abs(currentLoglikeli - prevLoglikeli) / (Math.abs(currentLoglikeli) + Math.abs(prevLoglikeli)) < opt_eta)
-				break;
-			prevLoglikeli = currentLoglikeli;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("training interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			if (pool != null)
+				pool.shutdown();
 		}
 		
-		// finally
+		finish(trainSet);
+	}
+	
+	
+	// batch training; the full gradient is computed by a parallel pass over the corpus
+	private final void runOWLQN (final UnitextCorpus trainSet) {
+		weight = param.getWeight();
+		Arrays.fill(weight, 0);
+		param.clear();
+		
+		final GradientShard[] shards = new GradientShard[opt_threads];
+		for (int k = 0; k < shards.length; k++)
+			shards[k] = new GradientShard(trainSet, trainSet.size() * k / shards.length, trainSet.size() * (k + 1) / shards.length);
+		final ExecutorService pool = opt_threads > 1 ? Executors.newFixedThreadPool(opt_threads) : null;
+		
+		logger.info(String.format("owlqn training: %d threads, memory %d", opt_threads, opt_memory));
+		double[] x = weight;
+		OWLQN optimizer = new OWLQN(opt_l1prior, (int) opt_maxiter, opt_eta, opt_memory);
+		final int N = trainSet.sizeElement();
+		metrics.startEpoch();
+		try {
+			optimizer.minimize(new OWLQN.Function() {
+				public double evaluate (double[] point, double[] grad) {
+					weight = point;
+					return negLogLikelihood(shards, pool, grad);
+				}
+
+				// one metrics row per iteration, without accuracy
+				public void iteration (int niter, double value, double[] point) {
+					metrics.endEpoch(niter, N, trainSet.size(), value, Double.NaN, point);
+					metrics.startEpoch();
+				}
+			}, x);
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+		weight = x;
+		
+		finish(trainSet);
+	}
+	
+	// negative log-likelihood of the corpus at the current weights; its gradient is written into grad
+	private final double negLogLikelihood (GradientShard[] shards, ExecutorService pool, double[] grad) {
+		try {
+			if (pool == null)
+				shards[0].call();
+			else {
+				for (Future<GradientShard> future : pool.invokeAll(Arrays.asList(shards)))
+					future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("training interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		
+		Arrays.fill(grad, 0);
+		double loglikeli = 0;
+		for (GradientShard shard : shards) {
+			loglikeli += shard.loglikeli;
+			for (TIntDoubleIterator it = shard.grad.iterator(); it.hasNext(); ) {
+				it.advance();
+				grad[it.key()] -= it.value();
+			}
+		}
+		return loglikeli;
+	}
+	
+	// evaluates the final model on the training set and stores the weights back into param
+	private final void finish (UnitextCorpus trainSet) {
+		double[] prob = new double[param.sizeLabel()];
+		int N = trainSet.sizeElement();
 		int nCorrect = 0;
 		double currentLogLikeli = 0;
 		Iterator<Sequence> iter = trainSet.iterator();
 		while (iter.hasNext()) {
 			Sequence instance = iter.next();
 			
-			for (SparseVector elem : instance.getSeq()) {
-				int outcome = argmax(elem, prob);
-				if (outcome == elem.getLabel()) 
+			for (int t = 0; t < instance.size(); t++) {
+				int y = instance.label(t);
+				int outcome = argmax(instance.inputs(), instance.start(t), instance.end(t), prob);
+				if (outcome == y) 
 					nCorrect ++;
 				// true loglikelihood  
-				currentLogLikeli -= Math.log(prob[elem.getLabel()]);
+				currentLogLikeli -= Math.log(prob[y]);
 			}
 		}
 		for (int i = 0; i < weight.length; i++)
@@ -150,40 +281,192 @@ public class MaxEnt extends CRF {
 
 		logger.info(String.format("[FINAL] %e %.4f", currentLogLikeli, (double) nCorrect / N ));
 		param.setWeight(weight);
+	}
+	
+	// one pass of SGD-L1 over a range of sequences; the weights are shared with the other shards
+	private final class Shard implements Callable<Shard> {
+		private final UnitextCorpus trainSet;
+		private final int from, to;
+		private final boolean shared;	// other shards write the weights concurrently
+		private final double[] prob = new double[param.sizeLabel()];
+		private double learningRate, cumulativeRate;
+		private int nCorrect;
+		private double loglikeli;
+		private double l1Change;	// of the weights written by this shard
+		private int nonZeroChange;
+		
+		Shard (UnitextCorpus trainSet, int from, int to, boolean shared) {
+			this.trainSet = trainSet;
+			this.from = from;
+			this.to = to;
+			this.shared = shared;
+		}
+		
+		void setRate (double learningRate, double cumulativeRate) {
+			this.learningRate = learningRate;
+			this.cumulativeRate = cumulativeRate;
+		}
+		
+		public Shard call () {
+			nCorrect = 0;
+			loglikeli = 0;
+			l1Change = 0;
+			nonZeroChange = 0;
+			for (int n = from; n < to; n++) {
+				Sequence instance = trainSet.get(n);
+				int[] ids = instance.inputs();
+				for (int t = 0; t < instance.size(); t++) {
+					int y = instance.label(t);
+					int outcome = shared ? argmaxShared(ids, instance.start(t), instance.end(t), prob) 
+							: argmax(ids, instance.start(t), instance.end(t), prob);
+					if (outcome == y) 
+						nCorrect ++;
+					
+					// gradient update
+					if (shared)
+						updateShared(ids, instance.start(t), instance.end(t), y, prob, learningRate, cumulativeRate, this);
+					else
+						update(ids, instance.start(t), instance.end(t), y, prob, learningRate, cumulativeRate, this);
+					// pseudo loglikelihood  
+					loglikeli -= Math.log(prob[y]);
+				}
+			}
+			return this;
+		}
+	}
+	
+	// gradient of the log-likelihood of a range of sequences; weights are read-only while it runs
+	private final class GradientShard implements Callable<GradientShard> {
+		private final UnitextCorpus trainSet;
+		private final int from, to;
+		private final double[] prob = new double[param.sizeLabel()];
+		private final TIntDoubleHashMap grad = new TIntDoubleHashMap();
+		private double loglikeli;
 		
+		GradientShard (UnitextCorpus trainSet, int from, int to) {
+			this.trainSet = trainSet;
+			this.from = from;
+			this.to = to;
+		}
+		
+		public GradientShard call () {
+			CompactIndex index = param.getCompactIndex();
+			int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+			grad.clear();
+			loglikeli = 0;
+			for (int n = from; n < to; n++) {
+				Sequence instance = trainSet.get(n);
+				int[] ids = instance.inputs();
+				for (int t = 0; t < instance.size(); t++) {
+					int label = instance.label(t);
+					argmax(ids, instance.start(t), instance.end(t), prob);
+					for (int m = instance.start(t); m < instance.end(t); m++) {
+						int x = ids[m];
+						for (int k = offsets[x]; k < offsets[x+1]; k++) {
+							int y = labels[k];
+							double g = (y == label ? 1 : 0) - prob[y];
+							grad.adjustOrPutValue(params[k], g, g);
+						}
+					}
+					loglikeli -= Math.log(prob[label]);
+				}
+			}
+			return this;
+		}
 	}
 	
-	private final void update (SparseVector instance, double[] prob, double l, double u) {
-		for (IntElement point : instance.getElement()) {
-			TIntIntHashMap index = param.getIndex(point.getId());
-			for (int y : index.keys()) {
+	// one token is ids[from .. to) of a column (see @Sequence) with the given gold label; the changes
+	// of the L1 norm and non-zero count go to the shard
+	private final void update (int[] ids, int from, int to, int label, double[] prob, double l, double u, Shard shard) {
+		CompactIndex index = param.getCompactIndex();
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		for (int m = from; m < to; m++) {
+			int x = ids[m];
+			for (int k = offsets[x]; k < offsets[x+1]; k++) {
+				int y = labels[k];
+				int fid = params[k];
+				double w = weight[fid], before = w;
+				if (y == label)
+					w += l * (1 - prob[y]);
+				else
+					w -= l * prob[y];
 				
-				int fid = index.get(y);
-				if (y == instance.getLabel())
-					weight[fid] += l * (1 - prob[y]);
+				// clipping + lazy update
+				double z = w;
+				double p = penalty[fid];
+				if (z > 0) 
+					w = Math.max(0, w - (u + p));
+				else if (z < 0)
+					w = Math.min(0, w + (u - p));
+				weight[fid] = w;
+				penalty[fid] += w - z;
+				shard.l1Change += Math.abs(w) - Math.abs(before);
+				if ((before != 0) != (w != 0))
+					shard.nonZeroChange += w != 0 ? 1 : -1;
+			}
+		}		
+	}
+	
+	// @update for Hogwild shards: the weights and penalties are read and written with opaque access
+	private final void updateShared (int[] ids, int from, int to, int label, double[] prob, double l, double u, Shard shard) {
+		CompactIndex index = param.getCompactIndex();
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		for (int m = from; m < to; m++) {
+			int x = ids[m];
+			for (int k = offsets[x]; k < offsets[x+1]; k++) {
+				int y = labels[k];
+				int fid = params[k];
+				double w = (double) SHARED.getOpaque(weight, fid), before = w;
+				if (y == label)
+					w += l * (1 - prob[y]);
 				else
-					weight[fid] -= l * prob[y];
+					w -= l * prob[y];
 				
 				// clipping + lazy update
-				double z = weight[fid];
+				double z = w;
+				double p = (double) SHARED.getOpaque(penalty, fid);
 				if (z > 0) 
-					weight[fid] = Math.max(0, weight[fid] - (u + penalty[fid]));
+					w = Math.max(0, w - (u + p));
 				else if (z < 0)
-					weight[fid] = Math.min(0, weight[fid] + (u - penalty[fid]));
-				penalty[fid] += weight[fid] - z;
+					w = Math.min(0, w + (u - p));
+				SHARED.setOpaque(weight, fid, w);
+				SHARED.setOpaque(penalty, fid, p + w - z);
+				shard.l1Change += Math.abs(w) - Math.abs(before);
+				if ((before != 0) != (w != 0))
+					shard.nonZeroChange += w != 0 ? 1 : -1;
 			}
 		}		
 	}
 	
-	private final int argmax (SparseVector instance, double[] prob) {
+	private final int argmax (int[] ids, int from, int to, double[] prob) {
 		Arrays.fill(prob, 0);
 		
-		for (IntElement point : instance.getElement()) {
-			TIntIntHashMap index = param.getIndex(point.getId());
-			for (int y : index.keys())
-				prob[y] += weight[index.get(y)];
+		CompactIndex index = param.getCompactIndex();
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		for (int m = from; m < to; m++) {
+			int x = ids[m];
+			for (int k = offsets[x]; k < offsets[x+1]; k++)
+				prob[labels[k]] += weight[params[k]];
 		}
+		return normalize(prob);
+	}
+	
+	// @argmax over weights written concurrently by the Hogwild shards
+	private final int argmaxShared (int[] ids, int from, int to, double[] prob) {
+		Arrays.fill(prob, 0);
 		
+		CompactIndex index = param.getCompactIndex();
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		for (int m = from; m < to; m++) {
+			int x = ids[m];
+			for (int k = offsets[x]; k < offsets[x+1]; k++)
+				prob[labels[k]] += (double) SHARED.getOpaque(weight, params[k]);
+		}
+		return normalize(prob);
+	}
+	
+	// scores to probabilities in place; returns the best label
+	private static int normalize (double[] prob) {
 		double sum = 0.0, max = 0.0;
 		int max_y = 0;
 		for (int y = 0; y < prob.length; y++) {
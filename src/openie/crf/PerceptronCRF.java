@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.crf;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+import openie.text.CompactIndex;
+import openie.text.Sequence;
+import openie.text.UnitextCorpus;
+import openie.util.Configure;
+import openie.util.TrainingMetrics;
+
+/**
+ * Linear-chain model trained with the averaged structured perceptron (Collins, 2002): each
+ * sequence costs one max-plus Viterbi pass, and an update touches only the features of the
+ * tokens where the prediction is wrong. The average is kept lazily (Daume, 2006), with
+ * w_avg = w - u / c, so the updates stay sparse.
+ *
+ * Decoding, the parameters and the model file are those of @UnitextCRF, which loads
+ * these models as its own.
+ */
+public class PerceptronCRF extends UnitextCRF {
+
+	private transient Logger logger = Logger.getLogger(PerceptronCRF.class);
+
+	// learning options
+	private int opt_epochs = 10;	// the "maxiter" option; UnitextCRF's opt_maxiter is not used
+	private long opt_seed = 1;	// of the shuffling between epochs; 0 keeps the corpus order
+
+	private double[] weight;	// current weights
+	private double[] accumulated;	// sum of c * update, for the lazy average
+	private long c;	// number of examples seen + 1
+	private double l1Norm;	// of the current weights
+	private int nNonZero;
+
+	private int L; // number of labels
+	private int[][] edgeIndex;
+	private double[] logEdge;
+	private CompactIndex index;
+	private Lattice lattice;
+
+	@Override
+	public void train(UnitextCorpus trainSet, Configure option) {
+		if (option.contains("maxiter"))
+			this.opt_epochs = option.getInteger("maxiter");
+		if (option.contains("seed"))
+			this.opt_seed = option.getInteger("seed");
+		if (option.contains("constrained"))
+			this.opt_constrained = option.getBoolean("constrained");
+
+		TrainingMetrics metrics = TrainingMetrics.fromOption(option, getClass().getSimpleName());
+		try {
+			runAveragedPerceptron(trainSet, metrics);
+		} finally {
+			metrics.close();
+		}
+	}
+
+	private final void runAveragedPerceptron (UnitextCorpus trainSet, TrainingMetrics metrics) {
+		L = param.sizeLabel();
+		edgeIndex = param.getEdgeIndex();
+		index = param.getCompactIndex();
+		lattice = new Lattice(L);
+		weight = new double[param.sizeParam()];
+		accumulated = new double[weight.length];
+		logEdge = new double[L * L];
+		c = 1;
+		l1Norm = 0;
+		nNonZero = 0;
+
+		Random random = opt_seed != 0 ? new Random(opt_seed) : null;
+		int nElement = trainSet.sizeElement();
+
+		// iteration
+		for (int niter = 0; niter < opt_epochs; niter++) {
+			int nCorrect = 0;
+			metrics.startEpoch();
+			if (random != null)
+				trainSet.shuffle(random);
+
+			Iterator<Sequence> iter = trainSet.iterator();
+			while (iter.hasNext()) {
+				Sequence instance = iter.next();
+				int[] outcome = viterbi(instance);
+				int nWrong = 0;
+				for (int t = 0; t < outcome.length; t++) {
+					if (outcome[t] == instance.label(t))
+						nCorrect++;
+					else
+						nWrong++;
+				}
+				if (nWrong > 0)
+					update(instance, outcome);
+				c++;
+			}
+
+			int nErrors = nElement - nCorrect;
+			logger.info(String.format("[%d] %d %.4f (%d)", niter+1, nErrors, (double) nCorrect / nElement, nNonZero));
+			metrics.endEpoch(niter+1, nElement, trainSet.size(), nErrors, (double) nCorrect / nElement, l1Norm, nNonZero);
+			if (nErrors == 0)
+				break;
+		}
+
+		// averaged weights
+		for (int i = 0; i < weight.length; i++)
+			weight[i] -= accumulated[i] / c;
+		param.setWeight(weight);
+		setConstrained(opt_constrained);	// also drops the decoder of the previous weights
+
+		finish(trainSet);
+	}
+
+	// best labels under the current (not averaged) weights
+	private final int[] viterbi (Sequence instance) {
+		int T = instance.size();
+		double[] nodeScore = lattice.initLogNode(T);
+		if (opt_constrained)
+			lattice.constrain(instance);
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		int[] ids = instance.inputs();
+		double[] vals = instance.values();
+
+		for (int t = 0; t < T; t++) {
+			int row = t * L, lo = lattice.lower(t), hi = lattice.upper(t);
+			for (int m = instance.start(t); m < instance.end(t); m++) {
+				int x = ids[m];
+				for (int k = offsets[x]; k < offsets[x+1]; k++) {
+					int y = labels[k];
+					if (y >= lo && y < hi)
+						nodeScore[row + y] += weight[params[k]] * (vals == null ? 1 : vals[m]);
+				}
+			}
+		}
+		for (int i = 0; i < L; i++)
+			for (int j = 0; j < L; j++)
+				logEdge[i * L + j] = edgeIndex[i][j] >= 0 ? weight[edgeIndex[i][j]] : 0;
+
+		return lattice.maxPlus(logEdge);
+	}
+
+	// + features of the reference path, - features of the predicted one, where they differ
+	private final void update (Sequence instance, int[] outcome) {
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		int[] ids = instance.inputs();
+		double[] vals = instance.values();
+
+		for (int t = 0; t < outcome.length; t++) {
+			int y = instance.label(t), z = outcome[t];
+			if (y != z) {
+				for (int m = instance.start(t); m < instance.end(t); m++) {
+					int x = ids[m];
+					double v = vals == null ? 1 : vals[m];
+					for (int k = offsets[x]; k < offsets[x+1]; k++) {
+						if (labels[k] == y)
+							step(params[k], v);
+						else if (labels[k] == z)
+							step(params[k], -v);
+					}
+				}
+			}
+			if (t > 0) {
+				int prev_y = instance.label(t-1), prev_z = outcome[t-1];
+				if (y != z || prev_y != prev_z) {
+					if (edgeIndex[y][prev_y] >= 0)
+						step(edgeIndex[y][prev_y], 1);
+					if (edgeIndex[z][prev_z] >= 0)
+						step(edgeIndex[z][prev_z], -1);
+				}
+			}
+		}
+	}
+
+	private final void step (int fid, double delta) {
+		double before = weight[fid];
+		weight[fid] += delta;
+		accumulated[fid] += c * delta;
+		l1Norm += Math.abs(weight[fid]) - Math.abs(before);
+		if ((before != 0) != (weight[fid] != 0))
+			nNonZero += weight[fid] != 0 ? 1 : -1;
+	}
+
+	// accuracy of the averaged model on the training set
+	private final void finish (UnitextCorpus trainSet) {
+		int nCorrect = 0;
+		Iterator<Sequence> iter = trainSet.iterator();
+		while (iter.hasNext()) {
+			Sequence instance = iter.next();
+			int[] outcome = predict(instance);
+			for (int t = 0; t < outcome.length; t++) {
+				if (outcome[t] == instance.label(t))
+					nCorrect++;
+			}
+		}
+		int n = 0;
+		for (double w : weight)
+			if (w != 0)
+				n++;
+		logger.info(String.format("[FINAL] %.4f (%d)", (double) nCorrect / trainSet.sizeElement(), n));
+	}
+}
@@ -7,22 +7,28 @@
 
 package openie.crf;
 
-import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.map.hash.TIntDoubleHashMap;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
-import openie.text.Alphabet;
+import openie.text.CompactIndex;
 import openie.text.Sequence;
 import openie.text.UnitextCorpus;
-import openie.text.SparseVector;
-import openie.text.SparseVector.IntElement;
 import openie.util.Configure;
-import openie.util.Stat;
+import openie.util.OWLQN;
+import openie.util.TrainingMetrics;
 
 public class UnitextCRF extends CRF {
 
@@ -33,38 +39,38 @@ public class UnitextCRF extends CRF {
 	private double opt_initLearnRate = 0.5;
 	private double opt_maxiter = 100;
 	private double opt_eta = 1E-05;
+	private int opt_threads = 1;	// > 1 enables mini-batch training on a worker pool
+	private int opt_batchSize = 0;	// sequences per mini-batch; 0 means 16 per thread
+	private String opt_optimizer = "sgd";	// sgd or owlqn
+	private int opt_memory = 10;	// number of correction pairs kept by owlqn
+	protected boolean opt_constrained = false;	// restrict ENT/NP positions to their observed label; see @Lattice.constrain
 
 	private double[] weight;	// weight vector
 	private double[] penalty;	// used for SGD-L1
+	private double l1Norm;	// sum of |weight|, maintained by @step during SGD
+	private int nNonZero;	// maintained by @step during SGD
 	
 	private int L; // number of labels
-	
-	// internal variables for CRF -- varies by instance 
-	private double[][] nodeScore;
-	private double[][] edgeScore; 
-	private double[][] alpha;
-	private double[][] beta;
-	private double[] alphaScale;
-	private double[] betaScale;
-	private double Z;
 	private int[][] edgeIndex;
+	private CompactIndex index;	// (label, input) -> parameter
+	
+	// inference state of the calling thread -- varies by instance
+	private Lattice lattice;
+
+	// thread-safe decoder of the current weights; see @compile
+	private volatile CompiledCRF compiled;
+
+	private transient TrainingMetrics metrics;
 
 	@Override
 	public int[] predict (Sequence instance) {
-		computeNode(instance);
-		computeEdge(instance); 
-		
-		forward();
-		backward();
-		
-		return argmax();
+		return compile().decode(instance);
 	}
 	
 	@Override
 	public void test(UnitextCorpus testSet, Configure option) {
-		L = param.sizeLabel();
-		weight = param.getWeight();
-		edgeIndex = param.getEdgeIndex();
+		if (option != null && option.contains("constrained"))
+			setConstrained(option.getBoolean("constrained"));
 
 		int nCorrect = 0;
 		Iterator<Sequence> iter = testSet.iterator();
@@ -74,39 +80,46 @@ public class UnitextCRF extends CRF {
 			// do argmax inference for evaluation
 			int[] outcome = predict(instance);
 			for (int i = 0; i < outcome.length; i++) {
-				if (outcome[i] == instance.at(i).getLabel()) 
+				if (outcome[i] == instance.label(i))
 					nCorrect ++;
 			}
 		}
 		logger.info(String.format("[TEST] %.4f", (double) nCorrect / testSet.sizeElement() ));
 	}
 	
+	// safe to call from several threads once the model is trained or loaded
 	@Override
 	public String[] predict (ArrayList<ArrayList<String>> stringInstances) {
-		String[] output = new String[stringInstances.size()];
-		L = param.sizeLabel();
-		weight = param.getWeight();
-		edgeIndex = param.getEdgeIndex();
+		return compile().decode(stringInstances);
+	}
 
-		Sequence instance = new Sequence();
-		for (ArrayList<String> stringInstance : stringInstances) {
-			instance.addElement(pack(stringInstance));
+	// immutable decoder sharing the current weights; rebuilt after training or loading
+	public CompiledCRF compile () {
+		CompiledCRF c = compiled;
+		if (c == null || c.getParam() != param) {
+			c = new CompiledCRF(param, opt_constrained);
+			compiled = c;
 		}
+		return c;
+	}
 		
-		int[] outcome = predict(instance);
-		assert(outcome.length == output.length);
-		
-		Alphabet labelDict = param.getLabelAlphabet();
-		
-		for (int i = 0; i < outcome.length; i++) {
-			output[i] = (String) labelDict.getObject(outcome[i]);
-		}
+	// the labels of the model must have the ids @Lattice.constrain assumes
+	public void setConstrained (boolean constrained) {
+		if (constrained && !Lattice.canConstrain(param.getLabelAlphabet()))
+			throw new IllegalArgumentException("can't constrain the decoding: ENT and NP are not labels " + Lattice.ENT + " and " + Lattice.NP);
+		opt_constrained = constrained;
+		compiled = null;
+	}
 		
-		return output;
+	@Override
+	public void load (String filename) throws IOException, ClassNotFoundException {
+		super.load(filename);
+		compiled = null;
 	}
 
 	@Override
 	public void train(UnitextCorpus trainSet, Configure option) {
+		compiled = null;
 		if (option.contains("maxiter"))
 			this.opt_maxiter = option.getInteger("maxiter");
 		if (option.contains("l1prior"))
@@ -115,192 +128,72 @@ public class UnitextCRF extends CRF {
 			this.opt_initLearnRate = option.getDouble("init_learning_rate");
 		if (option.contains("eta"))
 			this.opt_eta = option.getDouble("eta");
+		if (option.contains("threads"))
+			this.opt_threads = option.getInteger("threads");
+		if (option.contains("batch_size"))
+			this.opt_batchSize = option.getInteger("batch_size");
+		if (option.contains("optimizer"))
+			this.opt_optimizer = option.getString("optimizer").toLowerCase();
+		if (option.contains("memory"))
+			this.opt_memory = option.getInteger("memory");
+		if (option.contains("constrained"))
+			this.opt_constrained = option.getBoolean("constrained");
 		
-		runSGDL1(trainSet);		
+		metrics = TrainingMetrics.fromOption(option, getClass().getSimpleName());
+		try {
+			if (opt_optimizer.equals("owlqn"))
+				runOWLQN(trainSet);
+			else if (opt_threads > 1)
+				runParallelSGDL1(trainSet);
+			else
+				runSGDL1(trainSet);
+		} finally {
+			metrics.close();
+		}
 	}
 	
-	// pre-computing of node score (i.e. sums of node features)
-	// TODO: reducing the computation by dividing two sets {ENT, NP} and {O, REL}
-	private final void computeNode (Sequence instance) {
+	// pre-computing of node score (i.e. sums of node features); 
+	// if constrained, only the labels allowed at each position are scored
+	private final void computeNode (Sequence instance, Lattice lattice) {
 		int T = instance.size();
-		nodeScore = Stat.createMatrix(T+1, L, 1);
+		double[] nodeScore = lattice.initNode(T);
+		if (opt_constrained)
+			lattice.constrain(instance);
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		int[] ids = instance.inputs();
+		double[] vals = instance.values();
 		
 		for (int t = 0; t < T; t++) {
-			for (IntElement point : instance.at(t).getElement()) {
-				TIntIntHashMap index = param.getIndex(point.getId());
-				for (int y : index.keys())  
-					nodeScore[t][y] *= Math.exp(weight[index.get(y)] * point.getVal());
+			int row = t * L, lo = lattice.lower(t), hi = lattice.upper(t);
+			for (int m = instance.start(t); m < instance.end(t); m++) {
+				int x = ids[m];
+				for (int k = offsets[x]; k < offsets[x+1]; k++) {
+					int y = labels[k];
+					if (y >= lo && y < hi)
+						nodeScore[row + y] *= Math.exp(weight[params[k]] * (vals == null ? 1 : vals[m]));
+				}
 			}
 		}
 	}
 	
 	// pre-computing of edge score (i.e. transition features)
-	private final void computeEdge (Sequence instance) {
-		edgeScore = Stat.createMatrix(L, L, 1);
+	private final void computeEdge (Lattice lattice) {
+		double[] edgeScore = lattice.initEdge();
 		
 		for (int i = 0; i < L; i++) {
 			for (int j = 0; j < L; j++) {
 				if (edgeIndex[i][j] >= 0) 
-					edgeScore[i][j] = Math.exp(weight[edgeIndex[i][j]]); // NOTE: if you want to exploit complex features like (y_t, y_t-1, x) you should extend this matrix as 3-dim.
+					edgeScore[i * L + j] = Math.exp(weight[edgeIndex[i][j]]); // NOTE: if you want to exploit complex features like (y_t, y_t-1, x) you should extend this matrix as 3-dim.
 			}
 		}
 	}
 	
-	// forward 
-	private final void forward () {
-		int T = nodeScore.length;
-		alpha = Stat.createMatrix(T, L, 0);
-		alphaScale = Stat.createVector(T, 1);
-		
-		double sum = 0.0;
-		
-		// init
-		for (int i = 0; i < L; i++) {
-			alpha[0][i] += nodeScore[0][i];
-			sum += alpha[0][i];
-		}
-		for (int i = 0; i < L; i++)
-			alpha[0][i] /= sum;
-		alphaScale[0] = sum;
-		
-		// recursion
-		for (int t = 1; t < T - 1; t++) {
-			sum = 0.0;
-			for (int i = 0; i < L; i++) {
-				for (int j = 0; j < L; j++) { 
-					alpha[t][i] += alpha[t-1][j] * edgeScore[i][j];
-				}
-				alpha[t][i] *= nodeScore[t][i];
-				sum += alpha[t][i];
-			}
-			
-			for (int i = 0; i < L; i++) 
-				alpha[t][i] /= sum;
-			alphaScale[t] = sum;
-		}
-		
-		// final
-		for (int i = 0; i < L; i++)
-			alpha[T-1][0] += alpha[T-2][i];
-		alphaScale[T-1] = alpha[T-1][0];
-		
-		Z = alpha[T-1][0]; // = 1
-	}
-	
-	// backward
-	private final void backward () {
-		int T = nodeScore.length;
-		beta = Stat.createMatrix(T, L, 0);
-		betaScale = Stat.createVector(T, 1);
-		
-		double sum = 0.0;
-		
-		// final
-		beta[T-1][0] = 1.0;
-		for (int i = 0; i < L; i++) { 
-			beta[T-2][i] += 1.0;
-			sum += beta[T-2][i];
-		}
-		for (int i = 0; i < L; i++) 
-			beta[T-2][i] /= sum;
-		betaScale[T-2] = sum;
-		
-		// recursion
-		for (int t = T-2; t >= 1; t--) {
-			sum = 0.0;
-			for (int i = 0; i < L; i++) {
-				for (int j = 0; j < L; j++)
-					beta[t-1][i] += beta[t][j] * nodeScore[t][j] * edgeScore[j][i];
-				sum += beta[t-1][i];
-			}
-			
-			for (int i = 0; i < L; i++) 
-				beta[t-1][i] /= sum;
-			betaScale[t-1] = sum;
-		}
-	}
-
-	private final int[] argmax () {
-		int T = nodeScore.length;
-		
-		int[][] psi = new int[T][L]; 
-		double[][] delta = Stat.createMatrix(T, L, 0);
-		
-		// init
-		for (int i = 0; i < L; i++) {
-			psi[0][i] = 0;
-			delta[0][i] = Math.log(nodeScore[0][i]);
-		}
-		
-		// recursion
-		for (int t = 1; t < T-1; t++) {
-			for (int i = 0; i < L; i++) {
-				int maxPsi = 0;
-				double maxDelta = Double.MIN_VALUE;
-				for (int j = 0; j < L; j++) {
-					double val = delta[t-1][j] + Math.log(edgeScore[i][j]); 
-					if (val > maxDelta) {
-						maxDelta = val;
-						maxPsi = j;
-					}
-				}
-				maxDelta += Math.log(nodeScore[t][i]);
-				psi[t][i] = maxPsi;
-				delta[t][i] = maxDelta;
-			}
-		}
-		// last state
-		for (int i = 0; i < L; i++) {
-			psi[T-1][i] = -1;
-			delta[T-1][i] = Double.MIN_VALUE;
-		}
-		int maxPsi = 0; double maxDelta = Double.MIN_VALUE;
-		for (int i = 0; i < L; i++) {
-			if (delta[T-2][i] > maxDelta) {
-				maxDelta = delta[T-2][i];
-				maxPsi = i;
-			}
-		}
-		psi[T-1][0] = maxPsi;
-		delta[T-1][0] = maxDelta;
-		
-		// back-tracking
-		int[] args = new int[T-1];
-		int prev_y = 0;
-		for (int i = T-1; i >= 1; i--) {
-			int y = psi[i][prev_y];
-			prev_y = y;
-			args[i-1] = y;
-		}
-		//double prob = Math.exp(delta[T-1][0]);
-		
-		return args;
-	}
-
-	private final double likelihood (Sequence instance) {
-		int T = instance.size();
-		double prob = 1.0;
-		
-		double trans = 1.0;
-		int prev_y = 0, y = 0;
-		
-		for (int t = 0; t < T+1; t++) {
-			if (t < T) {
-				y = instance.at(t).getLabel();
-				if (t > 0)
-					trans = edgeScore[y][prev_y];
-				prob *= nodeScore[t][y] * trans;
-			} else {
-				y = 0;
-			}
-			
-			prev_y = y;
-			prob /= alphaScale[t];
-		}
+	private final double likelihood (Sequence instance, Lattice lattice) {
+		double prob = lattice.likelihood(instance);
 		if (Double.isNaN(prob) || Double.isInfinite(prob))
 			logger.error("seq. prob == " + prob);
 		
-		return prob / Z;
+		return prob;
 	}
 
 	private final void runSGDL1 (UnitextCorpus trainSet) {
@@ -308,9 +201,12 @@ public class UnitextCRF extends CRF {
 		weight = param.getWeight();
 		penalty = new double[weight.length];
 		edgeIndex = param.getEdgeIndex();
+		index = param.getCompactIndex();
+		lattice = new Lattice(L);
 		
 		param.clear();
 		Arrays.fill(penalty, 0);
+		resetNorm();
 		
 		double cumulativeRate = 0;
 		double prevLoglikeli = 0;
@@ -322,6 +218,7 @@ public class UnitextCRF extends CRF {
 			double learningRate = opt_initLearnRate / ( 1.0 + niter / nElement );
 			cumulativeRate += learningRate * opt_l1prior / nElement;
 			double currentLoglikeli = 0;
+			metrics.startEpoch();
 			
 			//trainSet.shuffle(new java.util.Random());
 			Iterator<Sequence> iter = trainSet.iterator();
@@ -329,88 +226,326 @@ public class UnitextCRF extends CRF {
 				Sequence instance = iter.next();
 				int T = instance.size();
 				
-				computeNode(instance);
-				computeEdge(instance); 
-				forward();
-				backward();
-				
-				int[] outcome = argmax(); // do argmax inference for evaluation
-				
-				// scale factor
-				ArrayList<Double> scaleProduct = new ArrayList<Double>();
-				double prod = 1.0;
-				for (int i = T; i >= 0; i--) {
-					prod *= (betaScale[i] / alphaScale[i]);
-					scaleProduct.add(prod);
-				}
-				Collections.reverse(scaleProduct);
+				computeNode(instance, lattice);
+				computeEdge(lattice);
+				lattice.forward();
+				lattice.backward();
 				
+				int[] outcome = lattice.viterbi(); // do argmax inference for evaluation
 				
 				int prev_y = 0;
-				for (int t = 0; t < outcome.length; t++) {
-					SparseVector elem = instance.at(t);
-					int y = elem.getLabel();
+				for (int t = 0; t < T; t++) {
+					int y = instance.label(t);
 					if (outcome[t] == y)
 						nCorrect ++;
 					
-					double scale_factor = scaleProduct.get(t+1) * betaScale[t];
-					double scale_factor2 = scaleProduct.get(t);
-					
 					// node update
-					double[] nodeProbs = new double[L];
-					for (int i = 0; i < L; i++) 
-						nodeProbs[i] = alpha[t][i] * beta[t][i] / Z * scale_factor;
-					updateNode(elem, nodeProbs, learningRate, cumulativeRate);
+					updateNode(instance, t, lattice.nodeMarginals(t), lattice.lower(t), lattice.upper(t), learningRate, cumulativeRate);
 					
 					// edge update
-					if (t > 0) {
-						double[][] edgeProbs = new double[L][L];
-						for (int i = 0; i < L; i++)  
-							for (int j = 0; j < L; j++)     
-								edgeProbs[i][j] = alpha[t-1][j] * beta[t][i] * nodeScore[t][i] * edgeScore[i][j] / Z * scale_factor2;
-						updateEdge(y, prev_y, edgeProbs, learningRate, cumulativeRate);
-					}
+					if (t > 0)
+						updateEdge(y, prev_y, lattice, t, learningRate, cumulativeRate);
 					
 					prev_y = y;
 				}
 				
-				double likeli = likelihood(instance);
+				double likeli = likelihood(instance, lattice);
 				if (!Double.isInfinite(likeli) && !Double.isNaN(likeli)) 
 					currentLoglikeli -= Math.log(likeli);
 			}
 			
-			for (int i = 0; i < weight.length; i++)
-				currentLoglikeli += opt_l1prior * Math.abs(weight[i]);
+			currentLoglikeli += opt_l1prior * l1Norm;
 			
-			logger.info(String.format("[%d] %e %.4f (%d)", niter+1, currentLoglikeli, (double) nCorrect / nElement , numNonZero()));
+			logger.info(String.format("[%d] %e %.4f (%d)", niter+1, currentLoglikeli, (double) nCorrect / nElement , nNonZero));
+			metrics.endEpoch(niter+1, nElement, trainSet.size(), currentLoglikeli, (double) nCorrect / nElement, l1Norm, nNonZero);
 			if ( Math.abs(currentLoglikeli - prevLoglikeli) / (Math.abs(currentLoglikeli) + Math.abs(prevLoglikeli)) < opt_eta)
 				break;
 			prevLoglikeli = currentLoglikeli;
 		}
 		
-		// finally
+		finish(trainSet);
+	}
+
+	// mini-batch SGD-L1; gradients of a batch are computed in parallel against fixed weights,
+	// then merged and applied (with the cumulative L1 penalty) by the calling thread
+	private final void runParallelSGDL1 (UnitextCorpus trainSet) {
+		L = param.sizeLabel();
+		weight = param.getWeight();
+		penalty = new double[weight.length];
+		edgeIndex = param.getEdgeIndex();
+		index = param.getCompactIndex();
+		lattice = new Lattice(L);
+
+		param.clear();
+		Arrays.fill(penalty, 0);
+		resetNorm();
+
+		int batchSize = opt_batchSize > 0 ? opt_batchSize : 16 * opt_threads;
+		BatchWorker[] workers = new BatchWorker[opt_threads];
+		for (int k = 0; k < workers.length; k++)
+			workers[k] = new BatchWorker(trainSet);
+		TIntDoubleHashMap batchGrad = new TIntDoubleHashMap();
+		ExecutorService pool = Executors.newFixedThreadPool(opt_threads);
+
+		double cumulativeRate = 0;
+		double prevLoglikeli = 0;
+		int nElement = trainSet.sizeElement();
+		int N = trainSet.size();
+
+		logger.info(String.format("mini-batch training: %d threads, %d sequences per batch", opt_threads, batchSize));
+		try {
+			// iteration
+			for (int niter = 0; niter < opt_maxiter; niter++) {
+				int nCorrect = 0;
+				double learningRate = opt_initLearnRate / ( 1.0 + niter / nElement );
+				cumulativeRate += learningRate * opt_l1prior / nElement;
+				double currentLoglikeli = 0;
+				metrics.startEpoch();
+
+				for (int start = 0; start < N; start += batchSize) {
+					int end = Math.min(N, start + batchSize);
+
+					// split the batch evenly over the workers
+					List<BatchWorker> tasks = new ArrayList<BatchWorker>(workers.length);
+					for (int k = 0; k < workers.length; k++) {
+						int from = start + (end - start) * k / workers.length;
+						int to = start + (end - start) * (k + 1) / workers.length;
+						if (from < to) {
+							workers[k].setRange(from, to);
+							tasks.add(workers[k]);
+						}
+					}
+					for (Future<BatchWorker> future : pool.invokeAll(tasks)) {
+						BatchWorker worker = future.get();
+						nCorrect += worker.nCorrect;
+						currentLoglikeli += worker.loglikeli;
+						for (TIntDoubleIterator it = worker.grad.iterator(); it.hasNext(); ) {
+							it.advance();
+							batchGrad.adjustOrPutValue(it.key(), it.value(), it.value());
+						}
+					}
+
+					// update with the merged gradient
+					for (TIntDoubleIterator it = batchGrad.iterator(); it.hasNext(); ) {
+						it.advance();
+						step(it.key(), learningRate * it.value(), cumulativeRate);
+					}
+					batchGrad.clear();
+				}
+
+				currentLoglikeli += opt_l1prior * l1Norm;
+
+				logger.info(String.format("[%d] %e %.4f (%d)", niter+1, currentLoglikeli, (double) nCorrect / nElement , nNonZero));
+				metrics.endEpoch(niter+1, nElement, N, currentLoglikeli, (double) nCorrect / nElement, l1Norm, nNonZero);
+				if ( Math.abs(currentLoglikeli - prevLoglikeli) / (Math.abs(currentLoglikeli) + Math.abs(prevLoglikeli)) < opt_eta)
+					break;
+				prevLoglikeli = currentLoglikeli;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("training interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		finish(trainSet);
+	}
+
+	// batch training; the full gradient is computed by a parallel pass over the corpus
+	private final void runOWLQN (final UnitextCorpus trainSet) {
+		L = param.sizeLabel();
+		weight = param.getWeight();
+		edgeIndex = param.getEdgeIndex();
+		index = param.getCompactIndex();
+		lattice = new Lattice(L);
+
+		param.clear();
+		Arrays.fill(weight, 0);
+
+		final BatchWorker[] workers = new BatchWorker[opt_threads];
+		for (int k = 0; k < workers.length; k++)
+			workers[k] = new BatchWorker(trainSet);
+		final ExecutorService pool = opt_threads > 1 ? Executors.newFixedThreadPool(opt_threads) : null;
+
+		logger.info(String.format("owlqn training: %d threads, memory %d", opt_threads, opt_memory));
+		double[] x = weight;
+		OWLQN optimizer = new OWLQN(opt_l1prior, (int) opt_maxiter, opt_eta, opt_memory);
+		final int nElement = trainSet.sizeElement();
+		metrics.startEpoch();
+		try {
+			optimizer.minimize(new OWLQN.Function() {
+				public double evaluate (double[] point, double[] grad) {
+					weight = point;
+					return negLogLikelihood(trainSet, workers, pool, grad);
+				}
+
+				// an iteration is one epoch, plus the passes of its line search; no accuracy is computed
+				public void iteration (int niter, double value, double[] point) {
+					metrics.endEpoch(niter, nElement, trainSet.size(), value, Double.NaN, point);
+					metrics.startEpoch();
+				}
+			}, x);
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+		weight = x;
+
+		finish(trainSet);
+	}
+
+	// negative log-likelihood of the corpus at the current weights; its gradient is written into grad
+	private final double negLogLikelihood (UnitextCorpus trainSet, BatchWorker[] workers, ExecutorService pool, double[] grad) {
+		int N = trainSet.size();
+		List<BatchWorker> tasks = new ArrayList<BatchWorker>(workers.length);
+		for (int k = 0; k < workers.length; k++) {
+			workers[k].setRange(N * k / workers.length, N * (k + 1) / workers.length);
+			tasks.add(workers[k]);
+		}
+
+		try {
+			if (pool == null)
+				workers[0].call();
+			else {
+				for (Future<BatchWorker> future : pool.invokeAll(tasks))
+					future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("training interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		Arrays.fill(grad, 0);
+		double loglikeli = 0;
+		int nCorrect = 0;
+		for (BatchWorker worker : workers) {
+			loglikeli += worker.loglikeli;
+			nCorrect += worker.nCorrect;
+			for (TIntDoubleIterator it = worker.grad.iterator(); it.hasNext(); ) {
+				it.advance();
+				grad[it.key()] -= it.value();
+			}
+		}
+		logger.debug(String.format("%e %.4f", loglikeli, (double) nCorrect / trainSet.sizeElement()));
+
+		return loglikeli;
+	}
+
+	// gradient of the log-likelihood of a range of sequences; weights are read-only while it runs
+	private final class BatchWorker implements Callable<BatchWorker> {
+		private final UnitextCorpus trainSet;
+		private final Lattice lattice = new Lattice(L);
+		private final TIntDoubleHashMap grad = new TIntDoubleHashMap();
+		private int from, to;
+		private int nCorrect;
+		private double loglikeli;
+
+		BatchWorker (UnitextCorpus trainSet) {
+			this.trainSet = trainSet;
+		}
+
+		void setRange (int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		public BatchWorker call () {
+			grad.clear();
+			nCorrect = 0;
+			loglikeli = 0;
+			for (int n = from; n < to; n++) {
+				Sequence instance = trainSet.get(n);
+
+				computeNode(instance, lattice);
+				computeEdge(lattice);
+				lattice.forward();
+				lattice.backward();
+
+				int[] outcome = lattice.viterbi();
+				for (int t = 0; t < instance.size(); t++) {
+					if (outcome[t] == instance.label(t))
+						nCorrect++;
+				}
+				accumulate(instance, lattice, grad);
+
+				double likeli = likelihood(instance, lattice);
+				if (!Double.isInfinite(likeli) && !Double.isNaN(likeli))
+					loglikeli -= Math.log(likeli);
+			}
+			return this;
+		}
+	}
+
+	// adds (empirical - expected) feature counts of one instance to grad; requires forward() and backward()
+	private final void accumulate (Sequence instance, Lattice lattice, TIntDoubleHashMap grad) {
+		int T = instance.size();
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		int[] ids = instance.inputs();
+		double[] vals = instance.values();
+
+		int prev_y = 0;
+		for (int t = 0; t < T; t++) {
+			int y = instance.label(t);
+
+			// node
+			double[] nodeProbs = lattice.nodeMarginals(t);
+			int lo = lattice.lower(t), hi = lattice.upper(t);
+			for (int m = instance.start(t); m < instance.end(t); m++) {
+				int x = ids[m];
+				for (int k = offsets[x]; k < offsets[x+1]; k++) {
+					int i = labels[k];
+					if (i < lo || i >= hi)
+						continue;
+					double g = ((i == y ? 1 : 0) - nodeProbs[i]) * (vals == null ? 1 : vals[m]);
+					grad.adjustOrPutValue(params[k], g, g);
+				}
+			}
+
+			// edge
+			if (t > 0) {
+				for (int i = lo; i < hi; i++) {
+					for (int j = lattice.lower(t-1); j < lattice.upper(t-1); j++) {
+						int fid = edgeIndex[i][j];
+						if (fid < 0) // = null parameter
+							continue;
+						double g = (i == y && j == prev_y ? 1 : 0) - lattice.edgeMarginal(t, i, j);
+						grad.adjustOrPutValue(fid, g, g);
+					}
+				}
+			}
+
+			prev_y = y;
+		}
+	}
+
+	// evaluates the final model on the training set and stores the weights back into param
+	private final void finish (UnitextCorpus trainSet) {
 		int nCorrect = 0;
 		double currentLogLikeli = 0;
+		int nElement = trainSet.sizeElement();
 		Iterator<Sequence> iter = trainSet.iterator();
 		while (iter.hasNext()) {
 			Sequence instance = iter.next();
 			
-			computeNode(instance);
-			computeEdge(instance); 
+			computeNode(instance, lattice);
+			computeEdge(lattice);
 			
-			forward();
-			backward();
+			lattice.forward();
+			lattice.backward();
 
-			int[] outcome = argmax();
+			int[] outcome = lattice.viterbi();
 
-			for (int t = 0; t < outcome.length; t++) {
-				SparseVector elem = instance.at(t);
-				if (outcome[t] == elem.getLabel())
+			for (int t = 0; t < instance.size(); t++) {
+				if (outcome[t] == instance.label(t))
 					nCorrect ++;
 			}
 			
 			// true loglikelihood  
-			double likeli = likelihood(instance);
+			double likeli = likelihood(instance, lattice);
 			if (!Double.isInfinite(likeli) && !Double.isNaN(likeli)) 
 				currentLogLikeli -= Math.log(likeli);
 		}
@@ -421,50 +556,73 @@ public class UnitextCRF extends CRF {
 		param.setWeight(weight);		
 	}
 	
-	private final void updateNode (SparseVector elem, double[] prob, double l, double u) {
-		for (IntElement point : elem.getElement()) {
-			TIntIntHashMap index = param.getIndex(point.getId());
-			for (int y : index.keys()) {
-				
-				int fid = index.get(y);
-				if (y == elem.getLabel())
-					weight[fid] += l * (1 - prob[y]) * point.val;
+	// labels outside [lo, hi) have zero probability, so their (lazily clipped) weights are left untouched
+	private final void updateNode (Sequence instance, int t, double[] prob, int lo, int hi, double l, double u) {
+		int[] offsets = index.getOffsets(), labels = index.getLabels(), params = index.getParams();
+		int[] ids = instance.inputs();
+		double[] vals = instance.values();
+		int label = instance.label(t);
+		for (int m = instance.start(t); m < instance.end(t); m++) {
+			int x = ids[m];
+			for (int k = offsets[x]; k < offsets[x+1]; k++) {
+				int y = labels[k];
+				if (y < lo || y >= hi)
+					continue;
+				if (y == label)
+					step(params[k], l * (1 - prob[y]) * (vals == null ? 1 : vals[m]), u);
 				else
-					weight[fid] -= l * prob[y] * point.val;
-
-				// clipping + lazy update
-				double z = weight[fid];
-				if (z > 0) 
-					weight[fid] = Math.max(0, weight[fid] - (u + penalty[fid]));
-				else if (z < 0)
-					weight[fid] = Math.min(0, weight[fid] + (u - penalty[fid]));
-				penalty[fid] += weight[fid] - z;
+					step(params[k], -(l * prob[y] * (vals == null ? 1 : vals[m])), u);
 			}
 		}		
 	}
 	
-	private final void updateEdge (int y, int prev_y, double[][] prob, double l, double u) {
-		for (int j = 0 ; j < L; j++) {
-			for (int i = 0; i < L; i++) {
+	private final void updateEdge (int y, int prev_y, Lattice lattice, int t, double l, double u) {
+		for (int j = lattice.lower(t-1) ; j < lattice.upper(t-1); j++) {
+			for (int i = lattice.lower(t); i < lattice.upper(t); i++) {
 				int fid = edgeIndex[i][j];
 				if (fid < 0) // = null parameter
 					continue;
 				
+				double prob = lattice.edgeMarginal(t, i, j);
 				if (i == y && j == prev_y)
-					weight[fid] += l * (1 - prob[i][j]);
+					step(fid, l * (1 - prob), u);
 				else
-					weight[fid] -= l * prob[i][j];
-				
-				// clipping + lazy update
-				double z = weight[fid];
-				if (z > 0) 
-					weight[fid] = Math.max(0, weight[fid] - (u + penalty[fid]));
-				else if (z < 0)
-					weight[fid] = Math.min(0, weight[fid] + (u - penalty[fid]));
-				penalty[fid] += weight[fid] - z;
+					step(fid, -(l * prob), u);
 			}
 		}
 	}
+
+	// gradient step on one weight, then clipping; keeps the L1 norm and the non-zero count
+	// up to date so that an epoch does not have to scan the whole weight vector
+	private final void step (int fid, double delta, double u) {
+		double before = weight[fid];
+		weight[fid] += delta;
+		clip(fid, u);
+		double after = weight[fid];
+		l1Norm += Math.abs(after) - Math.abs(before);
+		if ((before != 0) != (after != 0))
+			nNonZero += after != 0 ? 1 : -1;
+	}
+
+	private final void resetNorm () {
+		l1Norm = 0;
+		nNonZero = 0;
+		for (double w : weight) {
+			l1Norm += Math.abs(w);
+			if (w != 0)
+				nNonZero++;
+		}
+	}
+
+	// clipping + lazy update
+	private final void clip (int fid, double u) {
+		double z = weight[fid];
+		if (z > 0)
+			weight[fid] = Math.max(0, weight[fid] - (u + penalty[fid]));
+		else if (z < 0)
+			weight[fid] = Math.min(0, weight[fid] + (u - penalty[fid]));
+		penalty[fid] += weight[fid] - z;
+	}
 	
 	private final int numNonZero() {
 		int n = 0;
@@ -234,7 +234,8 @@ public class Treebank_EN_DataBuilder {
 					"\t -inputDir inputDataPath \n" +
 					"\t -outputDir outputDirPath \n" +
 					"\t -trainfile trainFile \n" + 
-					"\t -testfile testFile\n");
+					"\t -testfile testFile\n" +
+					"\t -lexical (word shape features of ENT and NP)\n");
 			return;
 		}
 			
@@ -255,6 +256,9 @@ public class Treebank_EN_DataBuilder {
 			} else if (args[argIndex].equalsIgnoreCase("-testFile")) {
 				testFileName = args[argIndex + 1];
 				argIndex += 2;
+			} else if (args[argIndex].equalsIgnoreCase("-lexical")) {
+				FeatureFactory.setLexicalFeatures(true);
+				argIndex += 1;
 			}
 	    }
 	    trainStream = new PrintStream(new FileOutputStream(trainFileName));
@@ -11,6 +11,13 @@ package openie.extractor;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,11 +41,37 @@ public class Extractor {
 	private boolean modeKR;
 	private UnitextCRF crf;
 	private Parameter param;
+	private FeatureCompiler features;	// string-free feature generation; see @featurize
+	private int nBest = 0;	// if > 0, print the n-best tuples with their probabilities
+	private double threshold = 0.0;	// n-best tuples less probable than this are dropped
 	
-	// openNLP tool 
-	Tokenizer tokenizer;
-	POSTaggerME tagger;
-	ChunkerME chunker;
+	private int nAnnotators = 1, nFeaturizers = 1, nDecoders = 1;	// workers per stage; see @Pipeline
+	private AtomicLong nSentences = new AtomicLong();	// sentences annotated so far, for progress reports
+	private ExtractorMetrics metrics = new ExtractorMetrics();	// stage latencies and outcome counters
+	
+	// openNLP models are shared; the tools are not thread-safe, so there is one of each per thread
+	TokenizerModel tokenizerModel;
+	POSModel taggerModel;
+	ChunkerModel chunkerModel;
+	
+	final ThreadLocal<Tokenizer> tokenizer = new ThreadLocal<Tokenizer>() {
+		@Override
+		protected Tokenizer initialValue() {
+			return new TokenizerME(tokenizerModel);
+		}
+	};
+	final ThreadLocal<POSTaggerME> tagger = new ThreadLocal<POSTaggerME>() {
+		@Override
+		protected POSTaggerME initialValue() {
+			return new POSTaggerME(taggerModel);
+		}
+	};
+	final ThreadLocal<ChunkerME> chunker = new ThreadLocal<ChunkerME>() {
+		@Override
+		protected ChunkerME initialValue() {
+			return new ChunkerME(chunkerModel, ChunkerME.DEFAULT_BEAM_SIZE, new DefaultChunkerSequenceValidator());
+		}
+	};
 	
 	public Extractor (boolean modeKR, String modelFileName, String nlpToolPath) throws IOException, ClassNotFoundException {
 		this.modeKR = modeKR;
@@ -50,17 +83,17 @@ public class Extractor {
 			// tokenizer
 			System.err.println("Loading tokenizer model...");
 			InputStream tokenizerModelIn = new FileInputStream(nlpToolPath + '/' + "en-token.bin");
-			tokenizer = new TokenizerME(new TokenizerModel(tokenizerModelIn));
+			tokenizerModel = new TokenizerModel(tokenizerModelIn);
 			if (tokenizerModelIn != null) tokenizerModelIn.close();
 			// postagger
 			System.err.println("Loading pos-tagger model...");
 			InputStream taggerModelIn = new FileInputStream(nlpToolPath + '/' + "en-pos-maxent.bin");
-			tagger = new POSTaggerME(new POSModel(taggerModelIn));
+			taggerModel = new POSModel(taggerModelIn);
 			if (taggerModelIn != null) taggerModelIn.close();
 			// chunker
 			System.err.println("Loading chunker model...");
 			InputStream chunkerModelIn = new FileInputStream(nlpToolPath + '/' + "en-chunker.bin");
-			chunker = new ChunkerME(new ChunkerModel(chunkerModelIn), ChunkerME.DEFAULT_BEAM_SIZE, new DefaultChunkerSequenceValidator());
+			chunkerModel = new ChunkerModel(chunkerModelIn);
 			if (chunkerModelIn != null) chunkerModelIn.close();
 		}
 		
@@ -69,8 +102,33 @@ public class Extractor {
 		param = new Parameter();
 		crf.setParam(param);
 		crf.load(modelFileName);
+		features = new FeatureCompiler(crf.getParam());
 	}
 	
+	public void setWorkers (int nAnnotators, int nFeaturizers, int nDecoders) {
+		this.nAnnotators = nAnnotators;
+		this.nFeaturizers = nFeaturizers;
+		this.nDecoders = nDecoders;
+	}
+
+	public long getNumSentences () {
+		return nSentences.get();
+	}
+
+	public ExtractorMetrics getMetrics () {
+		return metrics;
+	}
+
+	// ENT and NP positions are given by the chunker; fails unless the model numbers them as @Lattice.constrain expects
+	public void setConstrained (boolean constrained) {
+		crf.setConstrained(constrained);
+	}
+
+	public void setNBest (int nBest, double threshold) {
+		this.nBest = nBest;
+		this.threshold = threshold;
+	}
+
 	public static Span[] phrasesAsSpanList(String[] aSentence, String[] aTags, String[] aPreds) {
 		if (aSentence.length != aTags.length || aTags.length != aPreds.length)
 			throw new IllegalArgumentException("All arrays must have the same length!");
@@ -109,106 +167,195 @@ public class Extractor {
 		// extraction
 		BufferedReader inputReader = new BufferedReader(new FileReader(inFile.getPath()));
 		
-		String line = null; String rawSentence = null;
-		while ((line = inputReader.readLine()) != null) {
-			rawSentence = line.trim();
-
-			if (line.length() <= 0 || line.startsWith("#")) {
-		    	outStream.println(rawSentence);
-		    	continue;
+		if (nAnnotators == 1 && nFeaturizers == 1 && nDecoders == 1) {
+			String line = null; long seq = 0;
+			while ((line = inputReader.readLine()) != null) {
+				Job job = new Job(seq++, line);
+				annotate(job);
+				featurize(job);
+				decode(job);
+				outStream.print(job.output);
 			}
+		} else {
+			new Pipeline(this, nAnnotators, nFeaturizers, nDecoders).run(inputReader, outStream);
+		}
+		inputReader.close();
+		
+		// evaluation
+		if (isEvaluation) {
 			
-			//String[] tokens = tokenizer.tokenize(line); // tokenize
-			line = line.replace("\\/", "\\\\");
-			if (line.split("\t", -1).length > 1) 
-				line = line.split("\t", -1)[1];
-			
-			// processing argument marker
-			String arg1String = line.substring(line.indexOf("<p1>"), line.indexOf("</p1>"));
-			line = line.replace(arg1String+"</p1>", " ARG1 ");
-			arg1String = arg1String.substring(arg1String.indexOf(">")+1).trim();
-			String arg2String = line.substring(line.indexOf("<p2>"), line.indexOf("</p2>"));
-			line = line.replace(arg2String+"</p2>", " ARG2 ");
-			arg2String = arg2String.substring(arg2String.indexOf(">")+1).trim();
-			
-			// tokenizing
-	        //String whitespaceTokenizerLine[] = WhitespaceTokenizer.INSTANCE.tokenize(line);
-			String whitespaceTokenizerLine[] = tokenizer.tokenize(line);
-	        // tagging
-	        String[] tags = tagger.tag(whitespaceTokenizerLine);
-	        POSSample posSample = new POSSample(whitespaceTokenizerLine, tags);
-	        String[] words = posSample.getSentence();
-	        //chunking
-	        String[] chunks = chunker.chunk(posSample.getSentence(), posSample.getTags());
-	        ChunkSample chunkSample = new ChunkSample(posSample.getSentence(), posSample.getTags(), chunks);
-	        Span[] spans = phrasesAsSpanList(chunkSample.getSentence(), chunkSample.getTags(), chunkSample.getPreds());
+		}
+	}
+	
+	// extraction of one input line, as printed by @run; safe to call from several threads
+	public String extract(String line) {
+		Job job = new Job(0, line);
+		annotate(job);
+		featurize(job);
+		decode(job);
+		return job.output;
+	}
+	
+	// one input line travelling through the stages of @Pipeline; once output is set, the remaining stages pass it through
+	static class Job {
+		long seq;	// input order
+		String line;
+		String rawSentence;
+		ArrayList<Node> instance;
+		ArrayList<Node> wordForm;
+		ArrayList<ArrayList<String>> featureForm;
+		Sequence packed;
+		String output;
+		
+		Job (long seq, String line) {
+			this.seq = seq;
+			this.line = line;
+		}
+	}
+	
+	// stage 1: tokenizing, tagging and chunking; builds the (ARG1, context, ARG2) instance
+	void annotate(Job job) {
+		String line = job.line;
+		String rawSentence = job.rawSentence = line.trim();
 
-	        boolean isReverseOrder = false;
-	        int indexOfARG1 = -1, indexOfARG2 = -1;
-	        for (int i = 0; i < words.length; i++) {
-	        	if (words[i].equals("ARG1"))
-	        		indexOfARG1 = i;
-	        	else if (words[i].equals("ARG2"))
-	        		indexOfARG2 = i;
-	        }
-	        
-	        if (indexOfARG1 < 0 || indexOfARG2 < 0 || indexOfARG1 == indexOfARG2) {
-		    	outStream.println("null\t" + rawSentence);
-	        	continue;
-	        }
-	        if (indexOfARG1 > indexOfARG2) {
-	        	int temp = indexOfARG1; indexOfARG2 = indexOfARG2; indexOfARG2 = temp;
-	        	isReverseOrder = true;
-	        }
-	        
-	        Node arg1Node = isReverseOrder ? new Node(arg2String, "NNP", "ENT") : new Node(arg1String, "NNP", "ENT");
-	        Node arg2Node = isReverseOrder ? new Node(arg1String, "NNP", "ENT") : new Node(arg2String, "NNP", "ENT");
-	        //ArrayList<Node> leftContextOfARG1 = FeatureFactory.tokenizeString(words, tags, chunks, indexOfARG1-2, indexOfARG1);
-	        //ArrayList<Node> rightContextOfARG2 = FeatureFactory.tokenizeString(words, tags, chunks, indexOfARG2+1, indexOfARG2+3);
-			ArrayList<Node> context = FeatureFactory.tokenizeString(words, tags, chunks, indexOfARG1+1, indexOfARG2);
-			
-			ArrayList<Node> instance = new ArrayList<Node>();
-			//for (Node n : leftContextOfARG1) instance.add(n);
-			instance.add(arg1Node);
-			for (Node n : context) instance.add(n);
-			instance.add(arg2Node);
-			//for (Node n : rightContextOfARG2) instance.add(n);
-	        
-			// filtering 
-			boolean unexpectedInstance = false;
-			int nNP = 0; boolean inVerb = false;
-			for (Node n : context) {
-				if (n.postag.startsWith("VB"))
-					inVerb = true;
-				else if (n.label == "NP")
-					nNP++;
-			}
-			if (context.size() > MAX_DISTANCE || nNP > MAX_NP) 
-				unexpectedInstance = true;
-			
-			if (unexpectedInstance) {
-				outStream.println("null\t" + rawSentence);
-				continue;
-			}
-			
-			// prediction
-			ArrayList<Node> wordForm = new ArrayList<Node>();
-			ArrayList<ArrayList<String>> featureForm = FeatureFactory.generateFeature(instance, wordForm);
-			String[] prediction = crf.predict(featureForm);
-			for (int i = 0 ; i < prediction.length; i++)
-				outStream.print(wordForm.get(i).word+"/"+wordForm.get(i).postag+"/"+prediction[i] +" ");
-			outStream.println();
-			// print out
-			String output = predictionToString(prediction, wordForm);
-        	outStream.println(output + "\t" + rawSentence);
+		if (line.length() <= 0 || line.startsWith("#")) {
+			job.output = rawSentence + "\n";
+			metrics.count(ExtractorMetrics.SKIPPED);
+			return;
+		}
+		nSentences.incrementAndGet();
+		metrics.count(ExtractorMetrics.SENTENCES);
+		
+		//String[] tokens = tokenizer.tokenize(line); // tokenize
+		line = line.replace("\\/", "\\\\");
+		if (line.split("\t", -1).length > 1) 
+			line = line.split("\t", -1)[1];
 
-			for (int x = 0; x < featureForm.size(); x++) {
-				ArrayList<String> oneline = featureForm.get(x);
-				outStream.println(prediction[x] + " " + wordForm.get(x).word + " " + oneline.toString());
-			}
-			outStream.println();
+		// processing argument marker
+		String arg1String = line.substring(line.indexOf("<p1>"), line.indexOf("</p1>"));
+		line = line.replace(arg1String+"</p1>", " ARG1 ");
+		arg1String = arg1String.substring(arg1String.indexOf(">")+1).trim();
+		String arg2String = line.substring(line.indexOf("<p2>"), line.indexOf("</p2>"));
+		line = line.replace(arg2String+"</p2>", " ARG2 ");
+		arg2String = arg2String.substring(arg2String.indexOf(">")+1).trim();
+		
+		// tokenizing
+		//String whitespaceTokenizerLine[] = WhitespaceTokenizer.INSTANCE.tokenize(line);
+		long time = System.nanoTime();
+		String whitespaceTokenizerLine[] = tokenizer.get().tokenize(line);
+		time = metrics.lap(ExtractorMetrics.TOKENIZE, time);
+		// tagging
+		String[] tags = tagger.get().tag(whitespaceTokenizerLine);
+		time = metrics.lap(ExtractorMetrics.TAG, time);
+		POSSample posSample = new POSSample(whitespaceTokenizerLine, tags);
+		String[] words = posSample.getSentence();
+		//chunking
+		String[] chunks = chunker.get().chunk(posSample.getSentence(), posSample.getTags());
+		ChunkSample chunkSample = new ChunkSample(posSample.getSentence(), posSample.getTags(), chunks);
+		Span[] spans = phrasesAsSpanList(chunkSample.getSentence(), chunkSample.getTags(), chunkSample.getPreds());
+		time = metrics.lap(ExtractorMetrics.CHUNK, time);
+
+		boolean isReverseOrder = false;
+		int indexOfARG1 = -1, indexOfARG2 = -1;
+		for (int i = 0; i < words.length; i++) {
+			if (words[i].equals("ARG1"))
+				indexOfARG1 = i;
+			else if (words[i].equals("ARG2"))
+				indexOfARG2 = i;
+		}
+		
+		if (indexOfARG1 < 0 || indexOfARG2 < 0 || indexOfARG1 == indexOfARG2) {
+			job.output = "null\t" + rawSentence + "\n";
+			metrics.count(ExtractorMetrics.MISSING_ARGS);
+			return;
+		}
+		if (indexOfARG1 > indexOfARG2) {
+			int temp = indexOfARG1; indexOfARG2 = indexOfARG2; indexOfARG2 = temp;
+			isReverseOrder = true;
+		}
+		
+		Node arg1Node = isReverseOrder ? new Node(arg2String, "NNP", "ENT") : new Node(arg1String, "NNP", "ENT");
+		Node arg2Node = isReverseOrder ? new Node(arg1String, "NNP", "ENT") : new Node(arg2String, "NNP", "ENT");
+		//ArrayList<Node> leftContextOfARG1 = FeatureFactory.tokenizeString(words, tags, chunks, indexOfARG1-2, indexOfARG1);
+		//ArrayList<Node> rightContextOfARG2 = FeatureFactory.tokenizeString(words, tags, chunks, indexOfARG2+1, indexOfARG2+3);
+		ArrayList<Node> context = FeatureFactory.tokenizeString(words, tags, chunks, indexOfARG1+1, indexOfARG2);
+		
+		ArrayList<Node> instance = new ArrayList<Node>();
+		//for (Node n : leftContextOfARG1) instance.add(n);
+		instance.add(arg1Node);
+		for (Node n : context) instance.add(n);
+		instance.add(arg2Node);
+		//for (Node n : rightContextOfARG2) instance.add(n);
+		time = metrics.lap(ExtractorMetrics.TOKENIZE_STRING, time);
+		
+		// filtering 
+		boolean unexpectedInstance = false;
+		int nNP = 0; boolean inVerb = false;
+		for (Node n : context) {
+			if (n.postag.startsWith("VB"))
+				inVerb = true;
+			else if (n.label == "NP")
+				nNP++;
+		}
+		if (context.size() > MAX_DISTANCE) {
+			unexpectedInstance = true;
+			metrics.count(ExtractorMetrics.FILTERED_DISTANCE);
+		} else if (nNP > MAX_NP) {
+			unexpectedInstance = true;
+			metrics.count(ExtractorMetrics.FILTERED_NP);
+		}
+		
+		if (unexpectedInstance) {
+			job.output = "null\t" + rawSentence + "\n";
+			return;
+		}
+		job.instance = instance;
+	}
+
+	// stage 2: feature generation; see @FeatureCompiler. The feature strings of the printed dump
+	// come from the same pass; n-best output has no dump
+	void featurize(Job job) {
+		if (job.output != null)
+			return;
+		long time = System.nanoTime();
+		job.wordForm = new ArrayList<Node>();
+		job.featureForm = nBest > 0 ? null : new ArrayList<ArrayList<String>>();
+		job.packed = features.compile(job.instance, job.wordForm, job.featureForm);
+		metrics.lap(ExtractorMetrics.FEATURES, time);
+	}
+	
+	// stage 3: CRF decoding and formatting of the output lines
+	void decode(Job job) {
+		if (job.output != null)
+			return;
+		ArrayList<Node> wordForm = job.wordForm;
+		ArrayList<ArrayList<String>> featureForm = job.featureForm;
+		if (nBest > 0) {
+			job.output = nBestToString(job.packed, wordForm, job.rawSentence);
+			return;
+		}
+		
+		long time = System.nanoTime();
+		StringBuilder buffer = new StringBuilder();
+		CompiledCRF decoder = crf.compile();
+		String[] prediction = decoder.toLabels(decoder.decode(job.packed));
+		time = metrics.lap(ExtractorMetrics.DECODE, time);
+		for (int i = 0 ; i < prediction.length; i++)
+			buffer.append(wordForm.get(i).word+"/"+wordForm.get(i).postag+"/"+prediction[i] +" ");
+		buffer.append("\n");
+		// print out
+		String output = predictionToString(prediction, wordForm);
+		metrics.count(output.equals("null") ? ExtractorMetrics.NULL_OUTPUTS : ExtractorMetrics.EXTRACTED);
+		buffer.append(output + "\t" + job.rawSentence + "\n");
+
+		for (int x = 0; x < featureForm.size(); x++) {
+			ArrayList<String> oneline = featureForm.get(x);
+			buffer.append(prediction[x] + " " + wordForm.get(x).word + " " + oneline.toString() + "\n");
+		}
+		buffer.append("\n");
+		job.output = buffer.toString();
+		metrics.lap(ExtractorMetrics.OUTPUT, time);
 
-			
 //	        for (int i = 0; i < spans.length; i++) {
 //	        	// ARG1
 //	        	Node arg1 = null;
@@ -309,14 +456,39 @@ public class Extractor {
 //	        		}
 //	        	}
 //	        } // end for
-		}
-		
-		// evaluation
-		if (isEvaluation) {
-			
-		}
 	}
 	
+	// one line per n-best tuple: tuple, probability and the tokens with the marginal of their label
+	private String nBestToString(Sequence packed, ArrayList<Node> wordForm, String rawSentence) {
+		long time = System.nanoTime();
+		StringBuilder buffer = new StringBuilder();
+		CompiledCRF decoder = crf.compile();
+		double[][] marginals = new double[packed.size()][decoder.sizeLabel()];
+		ArrayList<Hypothesis> hypotheses = decoder.nBest(packed, nBest, marginals);
+		time = metrics.lap(ExtractorMetrics.DECODE, time);
+		for (Hypothesis h : hypotheses)
+			h.labels = decoder.toLabels(h.outcome);
+
+		int nPrinted = 0;
+		for (Hypothesis h : hypotheses) {
+			if (h.prob < threshold)
+				break;	// sorted by probability
+			String output = predictionToString(h.labels, wordForm);
+			if (output.equals("null"))
+				continue;
+			StringBuilder tokens = new StringBuilder();
+			for (int i = 0; i < h.labels.length; i++)
+				tokens.append(String.format("%s/%s/%.3f ", wordForm.get(i).word, h.labels[i], marginals[i][h.outcome[i]]));
+			buffer.append(String.format("%s\t%.4f\t%s\t%s\n", output, h.prob, tokens.toString().trim(), rawSentence));
+			nPrinted++;
+		}
+		if (nPrinted == 0)
+			buffer.append("null\t" + rawSentence + "\n");
+		metrics.count(nPrinted == 0 ? ExtractorMetrics.NULL_OUTPUTS : ExtractorMetrics.EXTRACTED);
+		metrics.lap(ExtractorMetrics.OUTPUT, time);
+		return buffer.toString();
+	}
+
     private String predictionToString(String[] prediction, ArrayList<Node> wordForm) {
     	String ret = null;
     	
@@ -376,6 +548,63 @@ public class Extractor {
 		return ret;
 	}
 
+	// extracts every file of inputDir into outputDir, nThreads files at a time. The files share this
+	// extractor, and so one CRF model; the openNLP tools are per thread. Progress goes to stderr.
+	public void runDirectory(File inputDir, final String outputDirName, int nThreads, final String refFileName, final Boolean isEvaluation) throws IOException {
+		final String[] filelist = inputDir.list();
+		final File dir = inputDir;
+		final AtomicInteger nFiles = new AtomicInteger();
+		final long startTime = System.currentTimeMillis();
+		final long startSentences = getNumSentences();
+		
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (final String filename : filelist) {
+			futures.add(pool.submit(new Callable<Object>() {
+				public Object call() throws IOException {
+					File inFile = new File(dir.getPath() + "/" + filename);
+					PrintStream outStream = new PrintStream(new FileOutputStream(outputDirName + "/" + filename));
+					try {
+						run(inFile, outStream, refFileName, isEvaluation);
+					} finally {
+						outStream.close();
+					}
+					reportProgress(nFiles.incrementAndGet(), filelist.length, startTime, startSentences, false);
+					return null;
+				}
+			}));
+		}
+		pool.shutdown();
+		
+		try {
+			for (Future<Object> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			throw new IOException("interrupted", e);
+		} catch (ExecutionException e) {
+			pool.shutdownNow();
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		reportProgress(nFiles.get(), filelist.length, startTime, startSentences, true);
+	}
+	
+	private long lastReport = 0;	// time of the last progress line; see @reportProgress
+	
+	// at most one line per second, unless final
+	private synchronized void reportProgress(int nDone, int nTotal, long startTime, long startSentences, boolean isFinal) {
+		long now = System.currentTimeMillis();
+		if (!isFinal && now - lastReport < 1000)
+			return;
+		lastReport = now;
+		double elapsed = Math.max(now - startTime, 1) / 1000.0;
+		System.err.print(String.format("\r%d/%d files, %.1f files/sec, %.0f sentences/sec", 
+				nDone, nTotal, nDone / elapsed, (getNumSentences() - startSentences) / elapsed));
+		if (isFinal)
+			System.err.println(String.format(" (%.1f sec)", elapsed));
+	}
+
 	public static void main(String[] args) {
 
         Logger logger = Logger.getLogger(Extractor.class);
@@ -391,6 +620,15 @@ public class Extractor {
         CmdLineParser.Option reference = cmdParser.addStringOption('r', "reference");
         CmdLineParser.Option input_dir = cmdParser.addStringOption('I', "inputDir");
         CmdLineParser.Option output_dir = cmdParser.addStringOption('O', "outputDir");
+        CmdLineParser.Option nbest = cmdParser.addIntegerOption('k', "nbest");
+        CmdLineParser.Option threshold = cmdParser.addDoubleOption('t', "threshold");
+        CmdLineParser.Option workers = cmdParser.addStringOption('w', "workers");
+        CmdLineParser.Option threads = cmdParser.addIntegerOption('T', "threads");
+        CmdLineParser.Option lemmaCache = cmdParser.addIntegerOption('L', "lemmaCache");
+        CmdLineParser.Option lemmaPreload = cmdParser.addStringOption('V', "vocab");
+        CmdLineParser.Option lexical = cmdParser.addBooleanOption('x', "lexical");
+        CmdLineParser.Option constrained = cmdParser.addBooleanOption('C', "constrained");
+        CmdLineParser.Option metricsInterval = cmdParser.addIntegerOption('M', "metrics");
 
         try {
            cmdParser.parse(args);
@@ -399,7 +637,13 @@ public class Extractor {
             logger.error(e.getMessage());
             logger.error("Usage: java -cp ${CLASSPATH} opeie.extractor.Extractor " +
                     "[-l,--lang] {EN, KR} [-m,--model] CRF model file [-i,--input] input text file [-o,--output] output text file (optional) \n" +
-                    "[{-e,--evaluation}] [-r,--reference] ground truth file");
+                    "[{-e,--evaluation}] [-r,--reference] ground truth file \n" +
+                    "[-k,--nbest] number of tuples per sentence (optional) [-t,--threshold] minimum tuple probability (optional) \n" +
+                    "[-w,--workers] threads per stage, N or NLP,FEATURE,DECODE (optional) \n" +
+                    "[-I,--inputDir] input directory [-O,--outputDir] output directory [-T,--threads] files processed at a time (optional) \n" +
+                    "[-L,--lemmaCache] lemma cache size, 0 to disable (optional) [-V,--vocab] tagged corpus to warm the lemma cache (optional) \n" +
+                    "[{-x,--lexical}] word shape features, for models trained with them [{-C,--constrained}] fix the labels of ENT and NP positions \n" +
+                    "[-M,--metrics] seconds between metrics dumps, also exposed over JMX (optional)");
             System.exit(2);
         }
 
@@ -418,17 +662,35 @@ public class Extractor {
         // running
         try {
         	Extractor extractor = new Extractor(modeKR, modelFileName, nlpToolPath);
+        	extractor.setNBest((Integer)cmdParser.getOptionValue(nbest, 0), (Double)cmdParser.getOptionValue(threshold, 0.0));
+        	FeatureFactory.setLexicalFeatures((Boolean)cmdParser.getOptionValue(lexical, Boolean.FALSE));
+        	extractor.setConstrained((Boolean)cmdParser.getOptionValue(constrained, Boolean.FALSE));
+        	int lemmaCacheSize = (Integer)cmdParser.getOptionValue(lemmaCache, LemmaCache.DEFAULT_SIZE);
+        	if (lemmaCacheSize > 0) {
+        		LemmaCache cache = new LemmaCache(lemmaCacheSize);
+        		String vocabFileName = (String)cmdParser.getOptionValue(lemmaPreload);
+        		if (vocabFileName != null)
+        			System.err.println("Preloaded " + cache.preload(vocabFileName) + " lemmas");
+        		FeatureFactory.setLemmaCache(cache);
+        	}
+        	Integer interval = (Integer)cmdParser.getOptionValue(metricsInterval);
+        	if (interval != null) {
+        		extractor.getMetrics().register("extractor");
+        		if (interval > 0)
+        			extractor.getMetrics().startDump(interval);
+        	}
+        	String workerString = (String)cmdParser.getOptionValue(workers);
+        	if (workerString != null) {
+        		String[] n = workerString.split(",");
+        		if (n.length == 3)
+        			extractor.setWorkers(Integer.parseInt(n[0]), Integer.parseInt(n[1]), Integer.parseInt(n[2]));
+        		else
+        			extractor.setWorkers(Integer.parseInt(n[0]), Integer.parseInt(n[0]), Integer.parseInt(n[0]));
+        	}
         	
         	if (inputDirName != "" && inputDirName != null) {
-        		File inputDir = new File(inputDirName);
-                String[] filelist = inputDir.list();
-                for (String filename : filelist) {
-                	File inFile = new File(inputDir.getPath() + "/" + filename);
-                	System.err.println("Processing " + inFile.getPath() + " ... ");
-    	    		PrintStream outStream = new PrintStream(new FileOutputStream(outputDirName + "/" + filename));
-    	        	extractor.run(inFile, outStream, refFileName, isEvaluation);
-    	        	outStream.close();
-                }
+        		int nThreads = (Integer)cmdParser.getOptionValue(threads, 1);
+        		extractor.runDirectory(new File(inputDirName), outputDirName, nThreads, refFileName, isEvaluation);
         	} else {
 	        	File inFile = new File(inputFileName);
 	    		PrintStream outStream = System.out;
@@ -439,6 +701,10 @@ public class Extractor {
 	        	
 	        	outStream.close();
         	}
+        	if (FeatureFactory.getLemmaCache() != null)
+        		System.err.println(FeatureFactory.getLemmaCache());
+        	if (interval != null)
+        		System.err.println(extractor.getMetrics());
         }
         catch (Exception e) {
         	logger.error("error " + e.getMessage());
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2010-2011 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.extractor;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import openie.util.LatencyHistogram;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Counters and per-stage latency histograms of an @Extractor, cheap enough to stay on: a
+ * stage costs two clock reads and a few uncontended atomic increments per sentence. They are
+ * exposed as a JMX MBean ("openie:type=Extractor,name=..."), with the attributes
+ * "<counter>" and "<stage>.{count,meanMicros,p50Micros,p99Micros,maxMicros}" and the
+ * operations reset and dump, and can be logged periodically; see @startDump.
+ */
+public class ExtractorMetrics implements DynamicMBean {
+
+	private static Logger logger = Logger.getLogger(ExtractorMetrics.class);
+
+	// stages; features is generateFeature and pack fused, see @FeatureCompiler
+	public static final int TOKENIZE = 0, TAG = 1, CHUNK = 2, TOKENIZE_STRING = 3, FEATURES = 4, DECODE = 5, OUTPUT = 6;
+	public static final String[] STAGES = {"tokenize", "tag", "chunk", "tokenizeString", "features", "decode", "output"};
+
+	// counters
+	public static final int SENTENCES = 0, SKIPPED = 1, MISSING_ARGS = 2, FILTERED_DISTANCE = 3, FILTERED_NP = 4, NULL_OUTPUTS = 5, EXTRACTED = 6;
+	public static final String[] COUNTERS = {"sentences", "skipped", "missingArgs", "filteredByDistance", "filteredByNP", "nullOutputs", "extracted"};
+
+	private static final String[] STAGE_ATTRIBUTES = {"count", "meanMicros", "p50Micros", "p99Micros", "maxMicros"};
+
+	private final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+	private final AtomicLong[] counters = new AtomicLong[COUNTERS.length];
+	private Thread dumper;
+
+	public ExtractorMetrics () {
+		for (int i = 0; i < stages.length; i++)
+			stages[i] = new LatencyHistogram();
+		for (int i = 0; i < counters.length; i++)
+			counters[i] = new AtomicLong();
+	}
+
+	// records the time of a stage that started at start (System.nanoTime); returns the current time
+	public final long lap (int stage, long start) {
+		long now = System.nanoTime();
+		stages[stage].recordNanos(now - start);
+		return now;
+	}
+
+	public final void count (int counter) {
+		counters[counter].incrementAndGet();
+	}
+
+	public long getCounter (int counter) {
+		return counters[counter].get();
+	}
+
+	public LatencyHistogram getStage (int stage) {
+		return stages[stage];
+	}
+
+	public void reset () {
+		for (LatencyHistogram stage : stages)
+			stage.reset();
+		for (AtomicLong counter : counters)
+			counter.set(0);
+	}
+
+	@Override
+	public String toString () {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < COUNTERS.length; i++)
+			sb.append(i > 0 ? " " : "").append(COUNTERS[i]).append('=').append(counters[i].get());
+		for (int i = 0; i < STAGES.length; i++)
+			sb.append('\n').append(String.format("%-15s ", STAGES[i])).append(stages[i]);
+		return sb.toString();
+	}
+
+	// registers with the platform MBean server as openie:type=Extractor,name=<name>
+	public ObjectName register (String name) throws JMException {
+		ObjectName objectName = new ObjectName("openie:type=Extractor,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	// logs the metrics every interval seconds from a daemon thread
+	public synchronized void startDump (final int interval) {
+		if (dumper != null)
+			dumper.interrupt();
+		dumper = new Thread("metrics-dump") {
+			public void run () {
+				try {
+					while (true) {
+						Thread.sleep(interval * 1000L);
+						logger.info("extractor metrics\n" + ExtractorMetrics.this);
+					}
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		dumper.setDaemon(true);
+		dumper.start();
+	}
+
+	public Object getAttribute (String name) throws AttributeNotFoundException {
+		for (int i = 0; i < COUNTERS.length; i++) {
+			if (COUNTERS[i].equals(name))
+				return counters[i].get();
+		}
+		int dot = name.indexOf('.');
+		if (dot > 0) {
+			String attribute = name.substring(dot + 1);
+			for (int i = 0; i < STAGES.length; i++) {
+				if (!STAGES[i].equals(name.substring(0, dot)))
+					continue;
+				LatencyHistogram stage = stages[i];
+				if (attribute.equals("count"))
+					return stage.count();
+				else if (attribute.equals("meanMicros"))
+					return stage.mean();
+				else if (attribute.equals("p50Micros"))
+					return stage.percentile(50);
+				else if (attribute.equals("p99Micros"))
+					return stage.percentile(99);
+				else if (attribute.equals("maxMicros"))
+					return stage.max();
+			}
+		}
+		throw new AttributeNotFoundException(name);
+	}
+
+	public AttributeList getAttributes (String[] names) {
+		AttributeList list = new AttributeList();
+		for (String name : names) {
+			try {
+				list.add(new Attribute(name, getAttribute(name)));
+			} catch (AttributeNotFoundException e) {
+			}
+		}
+		return list;
+	}
+
+	public void setAttribute (Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("read-only: " + attribute.getName());
+	}
+
+	public AttributeList setAttributes (AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke (String operation, Object[] params, String[] signature) throws ReflectionException {
+		if (operation.equals("reset")) {
+			reset();
+			return null;
+		} else if (operation.equals("dump"))
+			return toString();
+		throw new ReflectionException(new NoSuchMethodException(operation));
+	}
+
+	public MBeanInfo getMBeanInfo () {
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[COUNTERS.length + STAGES.length * STAGE_ATTRIBUTES.length];
+		int n = 0;
+		for (String counter : COUNTERS)
+			attributes[n++] = new MBeanAttributeInfo(counter, "long", "number of " + counter, true, false, false);
+		for (String stage : STAGES) {
+			for (String attribute : STAGE_ATTRIBUTES) {
+				String type = attribute.equals("meanMicros") ? "double" : "long";
+				attributes[n++] = new MBeanAttributeInfo(stage + "." + attribute, type, attribute + " of the " + stage + " stage", true, false, false);
+			}
+		}
+		MBeanOperationInfo[] operations = {
+			new MBeanOperationInfo("reset", "clears the counters and histograms", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION),
+			new MBeanOperationInfo("dump", "counters and stage latencies as text", new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO)
+		};
+		return new MBeanInfo(getClass().getName(), "openie extractor metrics", attributes, null, operations, null);
+	}
+}
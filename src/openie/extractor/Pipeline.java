@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2010-2011 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.extractor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import openie.extractor.Extractor.Job;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Staged extraction: reader -> NLP annotation -> feature generation -> CRF decoding -> writer.
+ * The stages are connected by bounded queues and each runs on its own pool of threads;
+ * the writer restores the input order. At most QUEUE_SIZE jobs are between the reader and the
+ * writer at a time, so a slow sentence holds back the reader rather than filling the writer.
+ */
+public class Pipeline {
+
+	static public int QUEUE_SIZE = 1024;	// capacity of each queue between two stages
+
+	private static final Job EOF = new Job(-1, null);	// end of input, passed on by the last worker of a stage
+
+	private transient Logger logger = Logger.getLogger(Pipeline.class);
+
+	private Extractor extractor;
+	private int nAnnotators;
+	private int nFeaturizers;
+	private int nDecoders;
+
+	private volatile Throwable error;	// first failure of any stage; rethrown by @run
+
+	public Pipeline (Extractor extractor, int nAnnotators, int nFeaturizers, int nDecoders) {
+		this.extractor = extractor;
+		this.nAnnotators = nAnnotators;
+		this.nFeaturizers = nFeaturizers;
+		this.nDecoders = nDecoders;
+	}
+
+	// worker of one stage; the last one to see EOF hands it on to every worker of the next stage
+	private abstract class Stage extends Thread {
+		private BlockingQueue<Job> in;
+		private BlockingQueue<Job> out;
+		private AtomicInteger nRunning;
+		private int nNext;
+
+		Stage (String name, BlockingQueue<Job> in, BlockingQueue<Job> out, AtomicInteger nRunning, int nNext) {
+			super(name);
+			setDaemon(true);
+			this.in = in;
+			this.out = out;
+			this.nRunning = nRunning;
+			this.nNext = nNext;
+		}
+
+		abstract void process (Job job);
+
+		@Override
+		public void run () {
+			try {
+				Job job;
+				while ((job = in.take()) != EOF) {
+					try {
+						if (error == null)
+							process(job);
+						else
+							job.output = "";	// skipped after a failure; the writer still waits for it
+					} catch (Throwable e) {
+						fail(e);
+						job.output = "";
+					}
+					out.put(job);
+				}
+				if (nRunning.decrementAndGet() == 0) {
+					for (int i = 0; i < nNext; i++)
+						out.put(EOF);
+				}
+			} catch (InterruptedException e) {
+				fail(e);
+			}
+		}
+	}
+
+	private void fail (Throwable e) {
+		if (error == null) {
+			error = e;
+			logger.error("extraction failed: " + e);
+		}
+	}
+
+	public void run (final BufferedReader inputReader, PrintStream outStream) throws IOException {
+		final BlockingQueue<Job> toAnnotate = new ArrayBlockingQueue<Job>(QUEUE_SIZE);
+		BlockingQueue<Job> toFeaturize = new ArrayBlockingQueue<Job>(QUEUE_SIZE);
+		BlockingQueue<Job> toDecode = new ArrayBlockingQueue<Job>(QUEUE_SIZE);
+		BlockingQueue<Job> toWrite = new ArrayBlockingQueue<Job>(QUEUE_SIZE);
+		final Semaphore inFlight = new Semaphore(QUEUE_SIZE);	// taken by the reader, given back by the writer
+
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		AtomicInteger nRunning = new AtomicInteger(nAnnotators);
+		for (int i = 0; i < nAnnotators; i++) {
+			threads.add(new Stage("annotator-" + i, toAnnotate, toFeaturize, nRunning, nFeaturizers) {
+				void process (Job job) { extractor.annotate(job); }
+			});
+		}
+		nRunning = new AtomicInteger(nFeaturizers);
+		for (int i = 0; i < nFeaturizers; i++) {
+			threads.add(new Stage("featurizer-" + i, toFeaturize, toDecode, nRunning, nDecoders) {
+				void process (Job job) { extractor.featurize(job); }
+			});
+		}
+		nRunning = new AtomicInteger(nDecoders);
+		for (int i = 0; i < nDecoders; i++) {
+			threads.add(new Stage("decoder-" + i, toDecode, toWrite, nRunning, 1) {
+				void process (Job job) { extractor.decode(job); }
+			});
+		}
+
+		// reader
+		threads.add(new Thread("reader") {
+			@Override
+			public void run () {
+				try {
+					String line = null; long seq = 0;
+					while (error == null && (line = inputReader.readLine()) != null) {
+						inFlight.acquire();
+						toAnnotate.put(new Job(seq++, line));
+					}
+				} catch (Throwable e) {
+					fail(e);
+				}
+				try {
+					for (int i = 0; i < nAnnotators; i++)
+						toAnnotate.put(EOF);
+				} catch (InterruptedException e) {
+					fail(e);
+				}
+			}
+		});
+
+		for (Thread thread : threads)
+			thread.start();
+
+		// ordered writer; holds the jobs that overtook an earlier one, at most QUEUE_SIZE
+		HashMap<Long, Job> pending = new HashMap<Long, Job>();
+		long next = 0;
+		try {
+			Job job;
+			while ((job = toWrite.take()) != EOF) {
+				pending.put(job.seq, job);
+				while ((job = pending.remove(next)) != null) {
+					outStream.print(job.output);
+					inFlight.release();
+					next++;
+				}
+			}
+			for (Thread thread : threads)
+				thread.join();
+		} catch (InterruptedException e) {
+			throw new IOException("interrupted", e);
+		}
+		outStream.flush();
+
+		if (error != null) {
+			if (error instanceof IOException)
+				throw (IOException) error;
+			throw new IOException(error);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2010-2011 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.extractor;
+
+import jargs.gnu.CmdLineParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import openie.text.FeatureFactory;
+import openie.text.LemmaCache;
+import openie.util.LatencyHistogram;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Long-running extraction service: the models are loaded once and stay resident, so a request
+ * pays only for tagging, features and decoding. The protocol is line-delimited, on stdin/stdout
+ * or on a local socket (one thread per connection, up to --connections):
+ *
+ *   request   one sentence in the input format of @Extractor.run (the relation marked by <p1>...</p1>
+ *             and <p2>...</p2>)
+ *   response  the lines @Extractor.run would print for it, then an empty line
+ *
+ * "!stats" answers with the request count and latency percentiles, "!metrics" with the stage
+ * latencies and counters of @ExtractorMetrics (also registered over JMX), "!reset" clears the
+ * request latencies and "!quit" closes the connection. The request latencies are also logged
+ * every --stats seconds and on exit.
+ */
+public class Server {
+
+	private static Logger logger = Logger.getLogger(Server.class);
+
+	protected Extractor extractor;
+	protected LatencyHistogram latency = new LatencyHistogram();
+
+	public Server (Extractor extractor) {
+		this.extractor = extractor;
+	}
+
+	// serves one client until it quits or closes its input
+	public void serve (InputStream in, OutputStream out) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
+		String line;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith("!")) {
+				String command = line.trim();
+				if (command.equals("!quit"))
+					break;
+				else if (command.equals("!stats"))
+					pw.println(latency);
+				else if (command.equals("!metrics"))
+					pw.println(extractor.getMetrics());
+				else if (command.equals("!reset")) {
+					latency.reset();
+					pw.println("ok");
+				} else
+					pw.println("error: unknown command " + command);
+			} else if (line.trim().length() > 0) {
+				long start = System.nanoTime();
+				String output;
+				try {
+					output = extractor.extract(line);
+				} catch (RuntimeException e) {
+					logger.error("failed to extract from: " + line, e);
+					output = "error: " + e + "\n";
+				}
+				if (output.endsWith("\n\n"))	// the empty line after the feature dump ends the response
+					output = output.substring(0, output.length() - 1);
+				pw.print(output);
+				latency.recordNanos(System.nanoTime() - start);
+			}
+			pw.println();
+			pw.flush();
+		}
+		pw.flush();
+	}
+
+	// accepts clients on a loopback port until the process is stopped
+	public void listen (int port, int nConnections) throws IOException {
+		ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		ExecutorService pool = Executors.newFixedThreadPool(nConnections);
+		logger.info("Listening on " + serverSocket.getLocalSocketAddress());
+		try {
+			while (true) {
+				final Socket socket = serverSocket.accept();
+				pool.execute(new Runnable() {
+					public void run () {
+						try {
+							serve(socket.getInputStream(), socket.getOutputStream());
+						} catch (IOException e) {
+							logger.warn("connection " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+						} finally {
+							try {
+								socket.close();
+							} catch (IOException e) {
+							}
+						}
+					}
+				});
+			}
+		} finally {
+			pool.shutdownNow();
+			serverSocket.close();
+		}
+	}
+
+	public LatencyHistogram getLatency () {
+		return latency;
+	}
+
+	public static void main(String[] args) {
+
+		// command line parsing
+		CmdLineParser cmdParser = new CmdLineParser();
+		CmdLineParser.Option language = cmdParser.addStringOption('l', "lang");
+		CmdLineParser.Option model = cmdParser.addStringOption('m', "model");
+		CmdLineParser.Option path = cmdParser.addStringOption('p', "path");
+		CmdLineParser.Option nbest = cmdParser.addIntegerOption('k', "nbest");
+		CmdLineParser.Option threshold = cmdParser.addDoubleOption('t', "threshold");
+		CmdLineParser.Option port = cmdParser.addIntegerOption('P', "port");
+		CmdLineParser.Option connections = cmdParser.addIntegerOption('c', "connections");
+		CmdLineParser.Option stats = cmdParser.addIntegerOption('s', "stats");
+		CmdLineParser.Option lemmaCache = cmdParser.addIntegerOption('L', "lemmaCache");
+		CmdLineParser.Option lemmaPreload = cmdParser.addStringOption('V', "vocab");
+		CmdLineParser.Option lexical = cmdParser.addBooleanOption('x', "lexical");
+		CmdLineParser.Option constrained = cmdParser.addBooleanOption('C', "constrained");
+
+		try {
+			cmdParser.parse(args);
+		}
+		catch (CmdLineParser.OptionException e) {
+			logger.error(e.getMessage());
+			logger.error("Usage: java -cp ${CLASSPATH} openie.extractor.Server " +
+					"[-l,--lang] {EN, KR} [-m,--model] CRF model file [-p,--path] NLP tool path (optional) \n" +
+					"[-k,--nbest] number of tuples per sentence (optional) [-t,--threshold] minimum tuple probability (optional) \n" +
+					"[-P,--port] local port, stdin/stdout if not given [-c,--connections] concurrent connections (optional) \n" +
+					"[-s,--stats] seconds between latency reports (optional) \n" +
+					"[-L,--lemmaCache] lemma cache size, 0 to disable (optional) [-V,--vocab] tagged corpus to warm the lemma cache (optional) \n" +
+					"[{-x,--lexical}] word shape features, for models trained with them [{-C,--constrained}] fix the labels of ENT and NP positions");
+			System.exit(2);
+		}
+
+		boolean modeKR = "KR".equals(cmdParser.getOptionValue(language));
+		String modelFileName = (String)cmdParser.getOptionValue(model);
+		String nlpToolPath = (String)cmdParser.getOptionValue(path);
+		if (nlpToolPath == null)
+			nlpToolPath = modeKR ? "model/nlpkr" : "model/opennlp";
+
+		try {
+			Extractor extractor = new Extractor(modeKR, modelFileName, nlpToolPath);
+			extractor.setNBest((Integer)cmdParser.getOptionValue(nbest, 0), (Double)cmdParser.getOptionValue(threshold, 0.0));
+			FeatureFactory.setLexicalFeatures((Boolean)cmdParser.getOptionValue(lexical, Boolean.FALSE));
+			extractor.setConstrained((Boolean)cmdParser.getOptionValue(constrained, Boolean.FALSE));
+			int lemmaCacheSize = (Integer)cmdParser.getOptionValue(lemmaCache, LemmaCache.DEFAULT_SIZE);
+			if (lemmaCacheSize > 0) {
+				LemmaCache cache = new LemmaCache(lemmaCacheSize);
+				String vocabFileName = (String)cmdParser.getOptionValue(lemmaPreload);
+				if (vocabFileName != null)
+					logger.info("Preloaded " + cache.preload(vocabFileName) + " lemmas");
+				FeatureFactory.setLemmaCache(cache);
+			}
+
+			extractor.getMetrics().register("server");
+			final Server server = new Server(extractor);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run () {
+					logger.info("latency " + server.getLatency());
+				}
+			});
+			final int interval = (Integer)cmdParser.getOptionValue(stats, 0);
+			if (interval > 0) {
+				Thread reporter = new Thread() {
+					public void run () {
+						try {
+							while (true) {
+								Thread.sleep(interval * 1000L);
+								logger.info("latency " + server.getLatency());
+							}
+						} catch (InterruptedException e) {
+						}
+					}
+				};
+				reporter.setDaemon(true);
+				reporter.start();
+			}
+
+			Integer portNumber = (Integer)cmdParser.getOptionValue(port);
+			if (portNumber != null)
+				server.listen(portNumber, (Integer)cmdParser.getOptionValue(connections, 4));
+			else
+				server.serve(System.in, System.out);
+		}
+		catch (Exception e) {
+			logger.error("error " + e.getMessage());
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+}
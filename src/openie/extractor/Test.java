@@ -51,14 +51,22 @@ public class Test {
             
             // training mode
             if (config.getBoolean("train") && config.contains("train_file")) {
-            	classifier.setParam(new Parameter());
+            	// hash_bits > 0 turns on feature hashing; see @HashedAlphabet
+            	int hashBits = config.contains("hash_bits") ? config.getInteger("hash_bits") : 0;
+            	classifier.setParam(hashBits > 0 ? new Parameter(hashBits) : new Parameter());
                 UnitextCorpus trainSet = new UnitextCorpus(classifier.getParam());
+                if (config.contains("corpus_cache"))
+                	trainSet.setCache(config.getBoolean("corpus_cache"));
             	trainSet.readFile(config.getString("train_file"), true);
             	if (config.contains("train") && config.getBoolean("train")) 
             		classifier.train(trainSet, config);
             	// model save
-            	if (config.contains("model_file")) 
-            		classifier.save(config.getString("model_file"));
+            	if (config.contains("model_file")) {
+            		if (config.contains("model_format") && config.getString("model_format").equals("mapped"))
+            			classifier.saveMapped(config.getString("model_file"));
+            		else
+            			classifier.save(config.getString("model_file"));
+            	}
             }
             // test mode
             if (config.getBoolean("test") && config.contains("test_file")) {
@@ -67,6 +75,8 @@ public class Test {
             	if (config.contains("model_file")) 
             		classifier.load(config.getString("model_file"));
                 UnitextCorpus testSet = new UnitextCorpus(classifier.getParam());
+                if (config.contains("corpus_cache"))
+                	testSet.setCache(config.getBoolean("corpus_cache"));
             	testSet.readFile(config.getString("test_file"), false);
             	if (config.contains("test") && config.getBoolean("test")) 
             		classifier.test(testSet, config);
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.text;
+
+/**
+ * Frozen (CSR) layout of an @InvertedIndex. The (label, parameter) pairs of input
+ * feature x are stored in labels[offsets[x] .. offsets[x+1]) and params[...], sorted by label,
+ * so that the training and inference loops can walk them without allocating.
+ */
+public class CompactIndex {
+
+	protected int[] offsets;	// offsets[x] is the first entry of input feature x; offsets[sizeInput()] = size()
+	protected int[] labels;	// label id of each entry
+	protected int[] params;	// parameter (weight) id of each entry
+
+	public CompactIndex (int[] offsets, int[] labels, int[] params) {
+		this.offsets = offsets;
+		this.labels = labels;
+		this.params = params;
+	}
+
+	public int lookup (int idY, int idX) {
+		if (idX < 0 || idY < 0 || idX >= sizeInput())
+			return -1;
+
+		int lo = offsets[idX], hi = offsets[idX+1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (labels[mid] < idY)
+				lo = mid + 1;
+			else if (labels[mid] > idY)
+				hi = mid - 1;
+			else
+				return params[mid];
+		}
+		return -1;
+	}
+
+	public int[] getOffsets () {
+		return offsets;
+	}
+
+	public int[] getLabels () {
+		return labels;
+	}
+
+	public int[] getParams () {
+		return params;
+	}
+
+	public int sizeInput () {
+		return offsets.length - 1;
+	}
+
+	public int size () {
+		return labels.length;
+	}
+}
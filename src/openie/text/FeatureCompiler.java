@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.text;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.ArrayList;
+
+import openie.text.FeatureFactory.FeatureSink;
+import openie.text.FeatureFactory.Node;
+
+/**
+ * Compiles the feature templates of @FeatureFactory straight into the packed instance a model
+ * decodes, without building feature strings: a feature is keyed by its template and the
+ * interned ids of its values, and the key is mapped to the model's input id once. Only the
+ * first occurrence of a feature formats its string, to look it up in the model dictionary.
+ *
+ * Produces the same features as CRF.pack(generateFeature(...)), and on request the strings of
+ * generateFeature as well, memoized like the ids. The interned values and the memoized ids are
+ * per thread, so one compiler can be shared by the workers of @Pipeline.
+ */
+public class FeatureCompiler {
+
+	static public int MAX_CACHE = 1 << 21;	// memoized features per thread before the cache is reset
+	private static final int VALUE_BITS = 19;	// per value in a key; see @key
+	private static final int MAX_VALUES = (1 << VALUE_BITS) - 1;
+
+	protected Parameter param;
+
+	private final ThreadLocal<State> state = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue () {
+			return new State();
+		}
+	};
+
+	public FeatureCompiler (Parameter param) {
+		this.param = param;
+	}
+
+	// packed features of the tokens from ENT1 to ENT2; wordForm, if given, receives those tokens
+	public Sequence compile (ArrayList<Node> sequence, ArrayList<Node> wordForm) {
+		return compile(sequence, wordForm, null);
+	}
+
+	// same as above; featureForm, if given, receives what generateFeature(sequence, wordForm) returns
+	public Sequence compile (ArrayList<Node> sequence, ArrayList<Node> wordForm, ArrayList<ArrayList<String>> featureForm) {
+		int[] window = FeatureFactory.entWindow(sequence);
+		State s = state.get();
+		s.reserve(sequence.size());
+		s.instance = new Sequence();
+		s.featureForm = featureForm;
+		FeatureFactory.generateFeature(sequence, window[0], window[1], s.values, s);
+		s.flush();
+		s.featureForm = null;
+		if (wordForm != null) {
+			for (int i = window[0]; i < window[1]; i++)
+				wordForm.add(sequence.get(i));
+		}
+		return s.instance;
+	}
+
+	// template (6 bits) and three values shifted by one so that an unused value (-1) is 0
+	private static final long key (int template, int a, int b, int c) {
+		return ((long) template << (3 * VALUE_BITS)) | ((long) (a + 1) << (2 * VALUE_BITS))
+				| ((long) (b + 1) << VALUE_BITS) | (long) (c + 1);
+	}
+
+	private class State implements FeatureSink {
+		Alphabet values = new Alphabet();
+		TLongIntHashMap ids = new TLongIntHashMap(1024, 0.5f, -1L, Integer.MIN_VALUE);
+		TLongObjectHashMap<String> strings = new TLongObjectHashMap<String>();	// only filled for featureForm
+		Sequence instance;
+		SparseVector elem;
+		ArrayList<ArrayList<String>> featureForm;
+		ArrayList<String> features;
+
+		// starts over once a sentence could overflow the value ids of a key, or the cache is full
+		void reserve (int length) {
+			if (values.size() + 8 * length + 64 >= MAX_VALUES || ids.size() >= MAX_CACHE) {
+				values = new Alphabet();
+				ids.clear();
+				strings.clear();
+			}
+		}
+
+		public void token (int i, String label) {
+			flush();
+			elem = new SparseVector(param.getLabelAlphabet().lookup(label, false));
+			if (featureForm != null) {
+				features = new ArrayList<String>();
+				features.add(label);
+				featureForm.add(features);
+			}
+		}
+
+		public void feature (int template, int a, int b, int c) {
+			long k = key(template, a, b, c);
+			String string = null;
+			if (featureForm != null) {
+				string = strings.get(k);
+				if (string == null) {
+					string = FeatureFactory.formatFeature(template, a, b, c, values);
+					strings.put(k, string);
+				}
+				features.add(string);
+			}
+			int id = ids.get(k);
+			if (id == Integer.MIN_VALUE) {
+				id = param.getInputAlphabet().lookup(string != null ? string : FeatureFactory.formatFeature(template, a, b, c, values), false);
+				ids.put(k, id);
+			}
+			if (id >= 0)
+				elem.addElement(id, 1);
+		}
+
+		void flush () {
+			if (elem != null) {
+				instance.addElement(elem);
+				elem = null;
+			}
+		}
+	}
+}
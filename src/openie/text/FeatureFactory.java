@@ -2,8 +2,6 @@
 package openie.text;
 
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import edu.stanford.nlp.ling.WordTag;
 import edu.stanford.nlp.process.Morphology;
@@ -11,6 +9,40 @@ import edu.stanford.nlp.process.Morphology;
 
 public class FeatureFactory {
 
+	// Morphology.stemStatic shares one lexer between all threads; see @Extractor pipeline
+	private static final ThreadLocal<Morphology> morphology = new ThreadLocal<Morphology>() {
+		@Override
+		protected Morphology initialValue () {
+			return new Morphology();
+		}
+	};
+
+	private static volatile LemmaCache lemmaCache;	// null: every token is stemmed
+	private static volatile boolean lexicalFeatures = false;	// word shape features of ENT and NP; see @WordShape
+	
+	public static void setLexicalFeatures(boolean enabled) {
+		lexicalFeatures = enabled;
+	}
+	
+	public static void setLemmaCache(LemmaCache cache) {
+		lemmaCache = cache;
+	}
+	
+	public static LemmaCache getLemmaCache() {
+		return lemmaCache;
+	}
+	
+	// uncached lemma; see @lemma
+	public static String stem(String word, String tag) {
+		WordTag wt = morphology.get().stem(word, tag);
+		return wt.word();
+	}
+	
+	public static String lemma(String word, String tag) {
+		LemmaCache cache = lemmaCache;
+		return cache != null ? cache.lemma(word, tag) : stem(word, tag);
+	}
+
 	public static class Node {
 		public String word;
 		public String postag;
@@ -135,69 +167,112 @@ public class FeatureFactory {
 		return seq;
 	}
 	
+	// "regex=" (word shape) and "lex:*" features; see @WordShape
 	public static ArrayList<String> generateLexicalFeature(String w) {
-		ArrayList<String> feature = new ArrayList<String>();
-		
-        Pattern upperCasePattern = Pattern.compile("[A-Z][A-Z]*");
-        Matcher upperCaseMatcher = upperCasePattern.matcher(w);
-        String output1 = upperCaseMatcher.replaceAll("A");
-        
-        Pattern lowerCasePattern = Pattern.compile("[a-z][a-z]*");
-        Matcher lowerCaseMatcher = lowerCasePattern.matcher(output1);
-        String output2 = lowerCaseMatcher.replaceAll("a");
-        
-        Pattern digitPattern = Pattern.compile("[0-9][0-9]*");
-        Matcher digitMatcher = digitPattern.matcher(output2);
-        String output3 = digitMatcher.replaceAll("0");
-        
-        Pattern puncPattern = Pattern.compile("\\p{P}\\p{P}*");
-        Matcher puncMatcher = puncPattern.matcher(output3);
-        String output4 = puncMatcher.replaceAll(".");
-        
-        
-        feature.add("regex=" + output4);
-        if (output4.equals("A"))
-        	feature.add("lex:allCapital=true");
-        else if (output4.startsWith("A")) 
-        	feature.add("lex:beginCapital=true");
-        else if (output4.indexOf('A') >= 0)
-        	feature.add("lex:containCapital=true");
-        
-        if (output4.equals("0"))
-        	feature.add("lex:allDigit=true");
-        else if (output4.startsWith("0")) 
-        	feature.add("lex:beginDigit=true");
-        else if (output4.indexOf('0') >= 0)
-        	feature.add("lex:containDigit=true");
-
-        if (output4.equals("."))
-        	feature.add("lex:allPunc=true");
-        else if (output4.startsWith(".")) 
-        	feature.add("lex:beginPunc=true");
-        else if (output4.indexOf('.') >= 0)
-        	feature.add("lex:containPunc=true");
-        
-        if (output4.replace('A', ' ').replace('a', ' ').replace('0', ' ').replace('.', ' ').trim().length() > 0)
-        	feature.add("lex:containOtherChar=true");
-        
-		return feature;
+		return WordShape.generateLexicalFeature(w);
 	}	
 	
-	@SuppressWarnings("unchecked")
-	public static ArrayList<ArrayList<String>> generateFeature(ArrayList<Node> sequence) {
+	/*
+	 * Feature templates. A feature is a template and up to three values (interned word and
+	 * POS strings, or numbers); its string form is the template followed by the values joined
+	 * by '&', e.g. "p-1&w=" + p + "&" + w. See @formatFeature and @FeatureCompiler.
+	 */
+	public static final String[] TEMPLATES = {
+		"p=", "w=",
+		"p-1=", "p-1&p=", "p-1&w=", "w-1=", "w-1&w=", "w-1&p=",
+		"p-2=", "p-2&p-1=", "p-2&p-1&p=", "p-2&p-1&w=", "w-2=", "w-2&p-1=", "w-2&p-1&p=", "w-2&w-1=",
+		"p-3=", "p-3&p-2=", "p-3&p-2&p-1=", "w-3=", "regex-3=",
+		"p+1=", "p&p+1=", "w&p+1=", "w+1=", "w&w+1=", "p&w+1", "regex+1=",
+		"p+2=", "p+1&p+2=", "p&p+1&p+2=", "w&p+1&p+2", "w+2=", "p+1&w+2=", "w+1&w+2=", "w&p+1&w+2=", "regex+2=",
+		"p+3=", "p+2&p+3=", "p+1&p+2&p+3=", "w+3=",
+		"noVerb", "nPrevV=", "nNextV=", "noNP", "nPrevNP=", "nNextNP=",
+		"nearestVerb=NONE", "nearestVerb=", "nearestVerbPOS=", "isNearestPP=true",
+		"regex=", "lex:",
+	};
+	private static final int P = 0, W = 1,
+		P_1 = 2, P_1_P = 3, P_1_W = 4, W_1 = 5, W_1_W = 6, W_1_P = 7,
+		P_2 = 8, P_2_P_1 = 9, P_2_P_1_P = 10, P_2_P_1_W = 11, W_2 = 12, W_2_P_1 = 13, W_2_P_1_P = 14, W_2_W_1 = 15,
+		P_3 = 16, P_3_P_2 = 17, P_3_P_2_P_1 = 18, W_3 = 19, REGEX_3 = 20,
+		P1 = 21, P_P1 = 22, W_P1 = 23, W1 = 24, W_W1 = 25, P_W1 = 26, REGEX1 = 27,
+		P2 = 28, P1_P2 = 29, P_P1_P2 = 30, W_P1_P2 = 31, W2 = 32, P1_W2 = 33, W1_W2 = 34, W_P1_W2 = 35, REGEX2 = 36,
+		P3 = 37, P2_P3 = 38, P1_P2_P3 = 39, W3 = 40,
+		NO_VERB = 41, N_PREV_V = 42, N_NEXT_V = 43, NO_NP = 44, N_PREV_NP = 45, N_NEXT_NP = 46,
+		NEAREST_VERB_NONE = 47, NEAREST_VERB = 48, NEAREST_VERB_POS = 49, IS_NEAREST_PP = 50,
+		REGEX = 51, LEX = 52;
+	
+	private static final String[] NUMBERS = new String[64];
+	static {
+		for (int i = 0; i < NUMBERS.length; i++)
+			NUMBERS[i] = Integer.toString(i);
+	}
+	
+	// receives the features of @generateFeature, token by token
+	public interface FeatureSink {
+		void token(int i, String label);
+		// values are ids in the values dictionary passed to @generateFeature; -1 if unused
+		void feature(int template, int a, int b, int c);
+	}
+	
+	public static String formatFeature(int template, int a, int b, int c, Alphabet values) {
+		if (a < 0)
+			return TEMPLATES[template];
+		StringBuilder sb = new StringBuilder(TEMPLATES[template]);
+		sb.append((String) values.getObject(a));
+		if (b >= 0)
+			sb.append('&').append((String) values.getObject(b));
+		if (c >= 0)
+			sb.append('&').append((String) values.getObject(c));
+		return sb.toString();
+	}
+	
+	private static int number(int n, Alphabet values) {
+		return values.lookup(n >= 0 && n < NUMBERS.length ? NUMBERS[n] : Integer.toString(n), true);
+	}
+	
+	// label first, then the features of each token
+	private static class StringSink implements FeatureSink {
 		ArrayList<ArrayList<String>> featureForm = new ArrayList<ArrayList<String>>();
-		ArrayList<ArrayList<String>> featureForm2 = new ArrayList<ArrayList<String>>();
+		ArrayList<String> features;
+		Alphabet values;
+		
+		StringSink(Alphabet values) {
+			this.values = values;
+		}
+		
+		public void token(int i, String label) {
+			features = new ArrayList<String>();
+			features.add(label);
+			featureForm.add(features);
+		}
+		
+		public void feature(int template, int a, int b, int c) {
+			features.add(formatFeature(template, a, b, c, values));
+		}
+	}
+	
+	public static ArrayList<ArrayList<String>> generateFeature(ArrayList<Node> sequence) {
+		StringSink sink = new StringSink(new Alphabet());
+		generateFeature(sequence, 0, sequence.size(), sink.values, sink);
+		return sink.featureForm;
+	}
+	
+	/*
+	 * Features of tokens [from, to); the context windows still see the whole sequence.
+	 * Word and POS values are interned into values once per token, so that a sink can
+	 * identify a feature by ints alone; see @FeatureCompiler.
+	 */
+	public static void generateFeature(ArrayList<Node> sequence, int from, int to, Alphabet values, FeatureSink sink) {
+		int n = sequence.size();
+		int[] wid = new int[n], pid = new int[n];
+		boolean lexical = lexicalFeatures;
+		ArrayList<String> lexNames = lexical ? new ArrayList<String>(4) : null;
 		
 		/*
-		 * Lexical features of current position
+		 * Lexical values of each position
 		 */
-		for (int i = 0; i < sequence.size(); i++) {
-			ArrayList<String> features = new ArrayList<String>();
-			String label = sequence.get(i).label;
-			features.add(label);
-			
-			// current
+		for (int i = 0; i < n; i++) {
 			Node cur = sequence.get(i);
+			String label = cur.label;
 			String w = ""; String p = cur.postag;
 			
 			if (label == "NP") {
@@ -207,283 +282,213 @@ public class FeatureFactory {
 					p = "NP";
 			} else if (label == "ENT")
 				p = "ENT";
-			features.add("p=" + p); // postag
 			
-//			if (!p.startsWith("N") && !p.startsWith("VB") && !p.startsWith("ENT")) {
-//				w = cur.word; 
-//				features.add("w=" + w); // word (if not functional, e.g. Noun, Verb, Adverb
-//			} 
-//			else if (cur.postag.startsWith("VB")) {
 			if (cur.label != "ENT" && cur.label != "NP") {
-				WordTag wt = Morphology.stemStatic(cur.word, cur.postag);
-				w = wt.word();
-				features.add("w=" + w); 
+				w = lemma(cur.word, cur.postag);
 			} 
-						
+			
 			// regex feature
-//			if (cur.label == "ENT" || cur.label == "NP") {
-//				if (w != "") {
-//					for (String l : generateLexicalFeature(w)) {
-//						features.add(l);
-//						if (l.startsWith("regex="))
-//							cur.regex = l.replace("regex=", "");
-//					}
-//				}
-//			}
-							
-			featureForm.add(features);
-			featureForm2.add((ArrayList<String>)features.clone());
-			cur.w = w; cur.p = p;	
+			cur.regex = null;
+			if (lexical && (cur.label == "ENT" || cur.label == "NP") && w != "")
+				cur.regex = WordShape.shape(w);
+			cur.w = w; cur.p = p;
+			wid[i] = values.lookup(w, true);
+			pid[i] = values.lookup(p, true);
 		}
-		// end of lexical features
-
 		
 		/*
-		 * Context features of current position
+		 * Verb and NP counts between ENT1 & ENT2, and the nearest verb so far
 		 */
-		for (int i = 0; i < sequence.size(); i++) {
+		int nEnt = 0;
+		int[] nVerb = new int[n], nNP = new int[n], nearestVB = new int[n];
+		int numVerb = 0; boolean inVP = false;
+		int numNP = 0;
+		int idNearestVB = 0;
+		for (int i = 0; i < n; i++) {
 			Node cur = sequence.get(i);
-			String w = cur.w, p = cur.p;
+			if (cur.label == "ENT")
+				nEnt++;	
+			
+			if (nEnt > 0 && nEnt < 2) {
+				if (cur.postag.startsWith("VB")) {
+					if (!inVP) {
+						numVerb++;
+					}
+					inVP = true;
+				}
+				else 
+					inVP = false;
+				
+				if (cur.label == "NP") {
+					numNP++;
+				}
+			}
+			nVerb[i] = numVerb; nNP[i] = numNP;
+			
+			if (cur.label != "ENT" && cur.label != "NP" && cur.postag.startsWith("VB"))
+				idNearestVB = i;
+			nearestVB[i] = idNearestVB;
+		}
 		
-			ArrayList<String> features = null;
-			if (cur.label == "ENT" || cur.label == "NP") 
-				features = featureForm2.get(i);
-			else //if (cur.postag.startsWith("VB") || cur.postag.equals("IN") || cur.postag.equals("TO"))
-				features = featureForm.get(i);
+		for (int i = from; i < to; i++) {
+			Node cur = sequence.get(i);
+			String w = cur.w;
+			int wi = wid[i], pi = pid[i];
+			
+			sink.token(i, cur.label);
+			sink.feature(P, pi, -1, -1); // postag
+			if (cur.label == "ENT" || cur.label == "NP") {
+				if (cur.regex != null) {
+					sink.feature(REGEX, values.lookup(cur.regex, true), -1, -1);
+					lexNames.clear();
+					WordShape.lexicalFeatures(cur.regex, lexNames);
+					for (String name : lexNames)
+						sink.feature(LEX, values.lookup(name, true), -1, -1);
+				}
+				continue;	// lexical features only
+			}
+			sink.feature(W, wi, -1, -1); 
 			
+			/*
+			 * Context features of current position
+			 */
 			// window (prev)
 			if (i > 0) {
 				Node p1 = sequence.get(i-1);
-				features.add("p-1=" + p1.p);
-				features.add("p-1&p=" + p1.p +"&"+ p);
+				sink.feature(P_1, pid[i-1], -1, -1);
+				sink.feature(P_1_P, pid[i-1], pi, -1);
 				if (w != "")
-					features.add("p-1&w=" + p1.p +"&"+ w);
+					sink.feature(P_1_W, pid[i-1], wi, -1);
 				if (p1.w != "") {
-					features.add("w-1=" + p1.w);
+					sink.feature(W_1, wid[i-1], -1, -1);
 					if (w != "")
-						features.add("w-1&w=" + p1.w +"&"+ w);
-					features.add("w-1&p=" + p1.w +"&"+ p);
+						sink.feature(W_1_W, wid[i-1], wi, -1);
+					sink.feature(W_1_P, wid[i-1], pi, -1);
 				}
-//				if (p1.regex != null)
-//					features.add("regex-1=" + p1.regex);
-
 				
 				if (i > 1) {
 					Node p2 = sequence.get(i-2);
-					features.add("p-2=" + p2.p);
-					features.add("p-2&p-1=" + p2.p +"&"+ p1.p);
-					features.add("p-2&p-1&p=" + p2.p +"&"+ p1.p + "&" + p);
+					sink.feature(P_2, pid[i-2], -1, -1);
+					sink.feature(P_2_P_1, pid[i-2], pid[i-1], -1);
+					sink.feature(P_2_P_1_P, pid[i-2], pid[i-1], pi);
 					if (w != "") 
-						features.add("p-2&p-1&w=" + p2.p +"&"+ p1.p + "&" + w);
+						sink.feature(P_2_P_1_W, pid[i-2], pid[i-1], wi);
 					if (p2.w != "") {
-						features.add("w-2=" + p2.w);
-						features.add("w-2&p-1=" + p2.w + "&" + p1.p);
-						features.add("w-2&p-1&p=" + p2.w + "&" + p1.p + "&" + p);
+						sink.feature(W_2, wid[i-2], -1, -1);
+						sink.feature(W_2_P_1, wid[i-2], pid[i-1], -1);
+						sink.feature(W_2_P_1_P, wid[i-2], pid[i-1], pi);
 						if (p1.w != "") 
-							features.add("w-2&w-1=" + p2.w + "&" + p1.w);
+							sink.feature(W_2_W_1, wid[i-2], wid[i-1], -1);
 					}
-//					if (p2.regex != null)
-//						features.add("regex-2=" + p2.regex);
 					
 					if (i > 2) {
 						Node p3 = sequence.get(i-3);
-						features.add("p-3=" + p3.p);
-						features.add("p-3&p-2=" + p3.p +"&"+ p2.p);
-						features.add("p-3&p-2&p-1=" + p3.p +"&"+ p2.p +"&"+ p1.p);
-						//features.add("p-3&p-2&p-1&p=" + p3.p +"&"+ p2.p +"&"+ p1.p +"&"+ p);
-						//if (w != "") 
-						//	oneline.add("p-3&p-2&p-1&w=" + p3.p +"&"+ p2.p +"&"+ p1.p +"&"+ w);
-						if (p3.w != "") {
-							features.add("w-3=" + p3.w);
-							//if (p2.w != "")
-							//	oneline.add("w-3&w-2&p-1&p" + p3.w +"&"+ p2.w +"&"+ p1.p +"&"+ p);
-
-						}
+						sink.feature(P_3, pid[i-3], -1, -1);
+						sink.feature(P_3_P_2, pid[i-3], pid[i-2], -1);
+						sink.feature(P_3_P_2_P_1, pid[i-3], pid[i-2], pid[i-1]);
+						if (p3.w != "")
+							sink.feature(W_3, wid[i-3], -1, -1);
 						if (p3.regex != null)
-							features.add("regex-3=" + p3.regex);
+							sink.feature(REGEX_3, values.lookup(p3.regex, true), -1, -1);
 					}
 				}
 			}
 			
 			// window (next)
-			if (i < sequence.size() - 1) {
+			if (i < n - 1) {
 				Node p1 = sequence.get(i+1);
-				features.add("p+1=" + p1.p);
-				features.add("p&p+1=" + p +"&"+ p1.p);
+				sink.feature(P1, pid[i+1], -1, -1);
+				sink.feature(P_P1, pi, pid[i+1], -1);
 				if (w != "")
-					features.add("w&p+1=" + w + "&"+ p1.p);
+					sink.feature(W_P1, wi, pid[i+1], -1);
 				if (p1.w != "") {
-					features.add("w+1=" + p1.w);
+					sink.feature(W1, wid[i+1], -1, -1);
 					if (w != "")
-						features.add("w&w+1=" + w +"&"+ p1.w);
-					features.add("p&w+1" + p +"&"+ p1.w);
+						sink.feature(W_W1, wi, wid[i+1], -1);
+					sink.feature(P_W1, pi, wid[i+1], -1);
 				}
 				if (p1.regex != null)
-					features.add("regex+1=" + p1.regex);
-				if (i < sequence.size() - 2) {
+					sink.feature(REGEX1, values.lookup(p1.regex, true), -1, -1);
+				if (i < n - 2) {
 					Node p2 = sequence.get(i+2);
-					features.add("p+2=" + p2.p);
-					features.add("p+1&p+2=" + p1.p +"&"+ p2.p);
-					features.add("p&p+1&p+2=" + p +"&"+ p1.p +"&"+ p2.p);
+					sink.feature(P2, pid[i+2], -1, -1);
+					sink.feature(P1_P2, pid[i+1], pid[i+2], -1);
+					sink.feature(P_P1_P2, pi, pid[i+1], pid[i+2]);
 					if (w != "")
-						features.add("w&p+1&p+2" + w +"&"+ p1.p +"&"+ p2.p);
+						sink.feature(W_P1_P2, wi, pid[i+1], pid[i+2]);
 					if (p2.w != "") {
-						features.add("w+2=" + p2.w);
-						features.add("p+1&w+2=" + p1.p + "&" + p2.w);
+						sink.feature(W2, wid[i+2], -1, -1);
+						sink.feature(P1_W2, pid[i+1], wid[i+2], -1);
 						if (p1.w != "") 
-							features.add("w+1&w+2=" + p1.w + "&" + p2.w);
+							sink.feature(W1_W2, wid[i+1], wid[i+2], -1);
 						if (w != "")
-							features.add("w&p+1&w+2=" + w + "&" + p1.p + "&" + p2.w);
-						
+							sink.feature(W_P1_W2, wi, pid[i+1], wid[i+2]);
 					}
 					if (p2.regex != null)
-						features.add("regex+2=" + p2.regex);
-					if (i < sequence.size() - 3) {
+						sink.feature(REGEX2, values.lookup(p2.regex, true), -1, -1);
+					if (i < n - 3) {
 						Node p3 = sequence.get(i+3);
-						features.add("p+3=" + p3.p);
-						features.add("p+2&p+3=" + p2.p +"&"+ p3.p);
-						features.add("p+1&p+2&p+3=" + p1.p +"&"+ p2.p +"&"+ p3.p);
-						//features.add("p&p+1&p+2&p+3=" + p +"&"+ p1.p +"&"+ p2.p +"&"+ p3.p);
-						//if (w != "") {
-							//features.add("w&p+1&p2&p+3" + w +"&"+ p1.p +"&"+ p2.p +"&"+ p3.p);
-							//if (p1.w != "") {
-							//	features.add("w&w+1&p2&p+3" + w +"&"+ p1.w +"&"+ p2.p +"&"+ p3.p);
-							//}
-						//}
-						if (p3.w != "") {
-							features.add("w+3=" + p3.w);
-						}
-						//if (p3.regex != null)
-						//	features.add("regex+3=" + p3.regex);
-					}
-				}
-			}
-		}
-		// end of context features
-		
-		/*
-		 * Context features of ENT1 & ENT2 
-		 */
-		int nEnt = 0;
-		ArrayList<Integer> nVerb = new ArrayList<Integer>();
-		ArrayList<Integer> nNP = new ArrayList<Integer>();
-		int numVerb = 0; boolean inVP = false;
-		int numNP = 0;
-		for (int i = 0; i < sequence.size(); i++) {
-			ArrayList<String> features = featureForm2.get(i);
-			Node cur = sequence.get(i);
-			if (cur.label == "ENT") {
-				nEnt++;	
-//				if (nEnt == 1) {
-//					for (String f : features) 
-//						if (f != "ENT" && f != "NP")
-//							entityFeat.add("ent1_"+f);
-//				}
-//				if (nEnt == 2) {
-//					for (String f : features) 
-//						if (f != "ENT" && f != "NP")
-//							entityFeat.add("ent2_"+f);	
-//				}
-			}
-			
-			if (nEnt > 0 && nEnt < 2) {
-				if (cur.postag.startsWith("VB")) {
-					if (!inVP) {
-						numVerb++;
+						sink.feature(P3, pid[i+3], -1, -1);
+						sink.feature(P2_P3, pid[i+2], pid[i+3], -1);
+						sink.feature(P1_P2_P3, pid[i+1], pid[i+2], pid[i+3]);
+						if (p3.w != "")
+							sink.feature(W3, wid[i+3], -1, -1);
 					}
-					inVP = true;
-				}
-				else 
-					inVP = false;
-				
-				if (cur.label == "NP") {
-					numNP++;
 				}
 			}
-			nVerb.add(numVerb);	nNP.add(numNP);
-		}
-		
-		int idNearestVB = 0;
-		for (int i = 0; i < sequence.size(); i++) {
-			ArrayList<String> features = featureForm.get(i);
-			Node cur = sequence.get(i);
-			if (cur.label == "ENT" || cur.label == "NP")
-				continue;
-			//if (!cur.postag.startsWith("VB") && !cur.postag.equals("IN") && !cur.postag.equals("TO"))
-			//	continue;
-			
-			//for (String f : entityFeat) {
-			//	features.add(cur.w + "|" + f);
-				//features.add("V" + nVerb.get(i) + "|" + f);
-			//}
-			
-//			if (i < sequence.size()-2) {
-//				Node p1 = sequence.get(sequence.size()-2);
-//				features.add("arg2_p-1="+p1.p+"+"+cur.w);
-//				features.add("arg2_p-1="+p1.p+"+"+cur.p);
-//				if (p1.w != "") { 
-//					features.add("arg2_w-1="+p1.w+"+"+cur.w);
-//					features.add("arg2_w-1="+p1.w+"+"+cur.p);
-//				}
-//				if (i < sequence.size()-3) {
-//					Node p2 = sequence.get(sequence.size()-3);
-//					features.add("arg2_p-2="+p2.p+"+"+cur.w);
-//					features.add("arg2_p-2="+p2.p+"+"+cur.p);
-//					if (p2.w != "") {
-//						features.add("arg2_w-2="+p2.w+"+"+cur.w);
-//						features.add("arg2_w-2="+p2.w+"+"+cur.p);
-//					}
-//					features.add("arg2_p-2&p-1="+p2.p+"&"+p1.p+"+"+cur.w);
-//					features.add("arg2_p-2&p-1="+p2.p+"&"+p1.p+"+"+cur.p);
-//					if (p1.w != "") { 
-//						features.add("arg2_p_2&w-1="+p2.p+"&"+p1.w+"+"+cur.w);
-//						features.add("arg2_p_2&w-1="+p2.p+"&"+p1.w+"+"+cur.p);
-//						if (p2.w != "") {
-//							features.add("arg2_w_2&w-1="+p2.w+"&"+p1.w+"+"+cur.w);
-//							features.add("arg2_w_2&w-1="+p2.w+"&"+p1.w+"+"+cur.p);
-//						}
-//					}	
-//				}
-//			}
 			
+			/*
+			 * Context features of ENT1 & ENT2 
+			 */
 			if (numVerb == 0) 
-				features.add("noVerb");
+				sink.feature(NO_VERB, -1, -1, -1);
 			else {
 				if (cur.postag.startsWith("VB"))
-					features.add("nPrevV="+(nVerb.get(i)-1));
+					sink.feature(N_PREV_V, number(nVerb[i] - 1, values), -1, -1);
 				else
-					features.add("nPrevV="+nVerb.get(i));
-				features.add("nNextV="+(numVerb - nVerb.get(i)));
+					sink.feature(N_PREV_V, number(nVerb[i], values), -1, -1);
+				sink.feature(N_NEXT_V, number(numVerb - nVerb[i], values), -1, -1);
 			}
 			if (numNP == 0) 
-				features.add("noNP");
+				sink.feature(NO_NP, -1, -1, -1);
 			else {
-				features.add("nPrevNP="+nNP.get(i));
-				features.add("nNextNP="+(numNP - nNP.get(i)));
+				sink.feature(N_PREV_NP, number(nNP[i], values), -1, -1);
+				sink.feature(N_NEXT_NP, number(numNP - nNP[i], values), -1, -1);
 			}
 			
-			if (cur.postag.startsWith("VB"))
-				idNearestVB = i;
-			
 			// nearest verb and ARG
 			if (cur.postag.equals("IN") || cur.postag.equals("TO")) {
-				if (idNearestVB == 0) {
-					features.add("nearestVerb=NONE");
+				if (nearestVB[i] == 0) {
+					sink.feature(NEAREST_VERB_NONE, -1, -1, -1);
 				} else {
-					features.add("nearestVerb="+sequence.get(idNearestVB).w);
-					features.add("nearestVerbPOS="+sequence.get(idNearestVB).p);
+					sink.feature(NEAREST_VERB, wid[nearestVB[i]], -1, -1);
+					sink.feature(NEAREST_VERB_POS, pid[nearestVB[i]], -1, -1);
 				}
-				if (nNP.get(i) == numNP)
-					features.add("isNearestPP=true");
+				if (nNP[i] == numNP)
+					sink.feature(IS_NEAREST_PP, -1, -1, -1);
 			}
 			
 			// Bag-of-word features
 			//generateBOW(sequence, i, features);
-			
 		}
-		// end of ENT1 & ENT2
-		
-		return featureForm;
+	}
+	
+	// tokens from the first ENT up to and including the second one: {from, to}
+	public static int[] entWindow(ArrayList<Node> sequence) {
+		int from = -1, to = sequence.size();
+		for (int i = 0; i < sequence.size(); i++) {
+			if (sequence.get(i).label.equals("ENT")) {
+				if (from < 0)
+					from = i;
+				else {
+					to = i + 1;
+					break;
+				}
+			}
+		}
+		if (from < 0)
+			return new int[] {0, 0};
+		return new int[] {from, to};
 	}
 	
 	public static void generateBOW(ArrayList<Node> sequence, int index, ArrayList<String> features) {
@@ -522,29 +527,14 @@ public class FeatureFactory {
 		
 	}
 	
+	// features of the tokens from ENT1 to ENT2; wordForm receives those tokens
 	public static ArrayList<ArrayList<String>> generateFeature(ArrayList<Node> sequence, ArrayList<Node> wordForm) {
-		ArrayList<ArrayList<String>> featureForm = generateFeature(sequence);
-		
-		// filter
-		ArrayList<ArrayList<String>> ret = new ArrayList<ArrayList<String>>();
-		//ArrayList<Node> newSequence = new ArrayList<Node>();
-		int entNumber = 0;
-		for (int i = 0; i < featureForm.size(); i++) {
-			ArrayList<String> oneline = featureForm.get(i);
-			if (oneline.get(0).equals("ENT")) {
-				entNumber++;
-			}
-			if (entNumber > 0) {
-				ret.add(oneline);
-				wordForm.add(sequence.get(i));
-			}
-			if (entNumber > 1 && oneline.get(0).equals("ENT")) {
-				break;
-			}
-		}
-		
-		///sequence = newSequence;
-		return ret;
+		int[] window = entWindow(sequence);
+		StringSink sink = new StringSink(new Alphabet());
+		generateFeature(sequence, window[0], window[1], sink.values, sink);
+		for (int i = window[0]; i < window[1]; i++)
+			wordForm.add(sequence.get(i));
+		return sink.featureForm;
 	}
 
 
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.text;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Input dictionary for the feature hashing mode: a feature string is hashed into one of
+ * 2^bits buckets and never stored, so the dictionary (and the parameter index over it)
+ * stays bounded however many feature conjunctions the corpus has. Distinct features may share a bucket.
+ *
+ * The label transition features of @Parameter.makeEdgeIndex (entries starting with "@") must
+ * not collide; they are kept exactly, with ids after the buckets.
+ */
+public class HashedAlphabet extends Alphabet {
+
+	private static final long serialVersionUID = 1L;
+	private static final int CURRENT_SERIAL_VERSION = 1;
+
+	protected int bits;
+	protected int mask;
+
+	public HashedAlphabet (int bits) {
+		super();
+		if (bits < 1 || bits > 30)
+			throw new IllegalArgumentException("hash bits out of range [1, 30]: " + bits);
+		this.bits = bits;
+		this.mask = (1 << bits) - 1;
+	}
+
+	@Override
+	public int lookup (Object entry, boolean isUpdate) {
+		if (entry == null)
+			throw new IllegalArgumentException("Can't find \"null\" entry in Dictionary");
+
+		String s = (String) entry;
+		if (s.startsWith("@")) {
+			int id = super.lookup(entry, isUpdate);
+			return id < 0 ? id : buckets() + id;
+		}
+		return hash(s) & mask;
+	}
+
+	// FNV-1a over the chars, then the murmur3 finalizer to spread the low bits
+	public static int hash (String s) {
+		int h = 0x811c9dc5;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	// hashed features have no string; their buckets are named "#<bucket>"
+	@Override
+	public Object getObject (int index) {
+		if (index < buckets())
+			return "#" + index;
+		return super.getObject(index - buckets());
+	}
+
+	@Override
+	public Object[] getObject (int[] indices) {
+		Object[] ret = new Object[indices.length];
+		for (int i = 0; i < indices.length; i++)
+			ret[i] = getObject(indices[i]);
+		return ret;
+	}
+
+	@Override
+	public boolean contains (Object entry) {
+		return lookup(entry, false) >= 0;
+	}
+
+	@Override
+	public int size () {
+		return buckets() + list.size();
+	}
+
+	@Override
+	public String toString () {
+		return "hashed(" + bits + " bits)\n" + super.toString();
+	}
+
+	@Override
+	public Object[] toArray () {
+		Object[] ret = new Object[size()];
+		for (int i = 0; i < ret.length; i++)
+			ret[i] = getObject(i);
+		return ret;
+	}
+
+	public int buckets () {
+		return mask + 1;
+	}
+
+	public int getBits () {
+		return bits;
+	}
+
+	// only the exact entries are written by Alphabet; the buckets need nothing but their number
+	private void writeObject (ObjectOutputStream out) throws IOException {
+		out.writeInt(CURRENT_SERIAL_VERSION);
+		out.writeInt(bits);
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.readInt();
+		bits = in.readInt();
+		mask = (1 << bits) - 1;
+	}
+}
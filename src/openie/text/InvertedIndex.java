@@ -16,6 +16,7 @@ import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.rmi.dgc.VMID;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class InvertedIndex implements Serializable {
@@ -26,7 +27,8 @@ public class InvertedIndex implements Serializable {
 	
 	protected Alphabet dictX;
 	protected Alphabet dictY;
-	protected ArrayList<TIntIntHashMap> index;
+	protected ArrayList<TIntIntHashMap> index;	// null while frozen; rows without entries may be null
+	protected transient volatile CompactIndex compact;	// frozen layout; see @freeze
 	protected int nElements = 0;
 	
 	public InvertedIndex (Alphabet dictX, Alphabet dictY) {
@@ -35,28 +37,45 @@ public class InvertedIndex implements Serializable {
 		index = new ArrayList<TIntIntHashMap>(dictX.size());
 	}
 	
+	// frozen index over an existing CSR layout
+	public InvertedIndex (Alphabet dictX, Alphabet dictY, CompactIndex compact) {
+		this.dictX = dictX;
+		this.dictY = dictY;
+		this.compact = compact;
+		this.index = null;
+		this.nElements = compact.size();
+	}
+	
 	public int lookup (int idY, int idX, boolean isUpdate) {
 		if (idX < 0 || idY < 0)
 			return -1;
+		if (index == null) {
+			int id = compact.lookup(idY, idX);
+			if (id >= 0 || !isUpdate)
+				return id;
+			thaw();
+		}
 		int id = -1;
 		
+		// input ids need not arrive in order, e.g. hashed ones (see @HashedAlphabet)
+		if (idX >= index.size() && isUpdate) {
+			while (index.size() <= idX)
+				index.add(null);
+		}
 		if (idX < index.size()) {
 			TIntIntHashMap map = index.get(idX);
-			if (map.contains(idY)) 
+			if (map != null && map.contains(idY)) 
 				id = map.get(idY);
 			else if (isUpdate) {
+				if (map == null) {
+					map = new TIntIntHashMap();
+					index.set(idX, map);
+				}
 				id = nElements;
 				map.put(idY, id);
 				nElements++;
 			}
 		}
-		else if (isUpdate) {
-			TIntIntHashMap map = new TIntIntHashMap();
-			id = nElements;
-			map.put(idY, id);
-			nElements++;
-			index.add(map);
-		}
 		
 		return id;
 	}
@@ -66,18 +85,75 @@ public class InvertedIndex implements Serializable {
 	}
 	
 	public void clear () {
-		index.clear();
+		index = new ArrayList<TIntIntHashMap>();
+		compact = null;
+		nElements = 0;
 	}
 	
 	public TIntIntHashMap getIndex (int i) {
-		return index.get(i);
+		if (index != null) {
+			if (i < index.size() && index.get(i) != null)
+				return index.get(i);
+			return new TIntIntHashMap();
+		}
+		
+		TIntIntHashMap map = new TIntIntHashMap();
+		for (int k = compact.offsets[i]; k < compact.offsets[i+1]; k++)
+			map.put(compact.labels[k], compact.params[k]);
+		return map;
+	}
+	
+	// converts the hash maps into the CSR layout and releases them; a later update re-opens them.
+	// The layout has a row for every id of dictX, so any input it returns can be looked up
+	public synchronized CompactIndex freeze () {
+		if (index == null)
+			return compact;
+		
+		int rows = dictX != null ? Math.max(index.size(), dictX.size()) : index.size();
+		int[] offsets = new int[rows + 1];
+		for (int i = 0; i < rows; i++)
+			offsets[i+1] = offsets[i] + (i < index.size() && index.get(i) != null ? index.get(i).size() : 0);
+		int[] labels = new int[offsets[rows]];
+		int[] params = new int[labels.length];
+		for (int i = 0; i < index.size(); i++) {
+			TIntIntHashMap map = index.get(i);
+			if (map == null)
+				continue;
+			int[] keys = map.keys();
+			Arrays.sort(keys);
+			for (int k = 0; k < keys.length; k++) {
+				labels[offsets[i] + k] = keys[k];
+				params[offsets[i] + k] = map.get(keys[k]);
+			}
+		}
+		
+		compact = new CompactIndex(offsets, labels, params);
+		index = null;
+		return compact;
+	}
+	
+	public CompactIndex getCompactIndex () {
+		CompactIndex c = compact;
+		if (c != null && index == null)
+			return c;
+		return freeze();
+	}
+	
+	private synchronized void thaw () {
+		if (index != null)
+			return;
+		index = new ArrayList<TIntIntHashMap>(compact.sizeInput());
+		for (int i = 0; i < compact.sizeInput(); i++)
+			index.add(compact.offsets[i] < compact.offsets[i+1] ? getIndex(i) : null);
+		compact = null;
 	}
 
 	private void writeObject (ObjectOutputStream out) throws IOException {
 		out.writeInt(CURRENT_SERIAL_VERSION);
-		out.writeInt(index.size());
-		for (int i = 0; i < index.size(); i++) {
-			TIntIntHashMap map = index.get(i);
+		int size = index != null ? index.size() : compact.sizeInput();
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			TIntIntHashMap map = getIndex(i);
 			out.writeInt(map.size());
 			for (int key : map.keys()) {
 				out.writeInt(key);
@@ -101,7 +177,7 @@ public class InvertedIndex implements Serializable {
 				map.put(key, value);
 				nElements++;
 			}
-			index.add(map);
+			index.add(map_size > 0 ? map : null);
 		}
 		if (version > 0 ) 
 			instanceId = (VMID) in.readObject();
@@ -2,8 +2,6 @@
 package openie.text;
 
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import edu.stanford.nlp.ling.WordTag;
 import edu.stanford.nlp.process.Morphology;
@@ -135,52 +133,9 @@ public class KoreanFeatureFactory {
 		return seq;
 	}
 	
+	// "regex=" (word shape) and "lex:*" features; see @WordShape
 	public static ArrayList<String> generateLexicalFeature(String w) {
-		ArrayList<String> feature = new ArrayList<String>();
-		
-        Pattern upperCasePattern = Pattern.compile("[A-Z][A-Z]*");
-        Matcher upperCaseMatcher = upperCasePattern.matcher(w);
-        String output1 = upperCaseMatcher.replaceAll("A");
-        
-        Pattern lowerCasePattern = Pattern.compile("[a-z][a-z]*");
-        Matcher lowerCaseMatcher = lowerCasePattern.matcher(output1);
-        String output2 = lowerCaseMatcher.replaceAll("a");
-        
-        Pattern digitPattern = Pattern.compile("[0-9][0-9]*");
-        Matcher digitMatcher = digitPattern.matcher(output2);
-        String output3 = digitMatcher.replaceAll("0");
-        
-        Pattern puncPattern = Pattern.compile("\\p{P}\\p{P}*");
-        Matcher puncMatcher = puncPattern.matcher(output3);
-        String output4 = puncMatcher.replaceAll(".");
-        
-        
-        feature.add("regex=" + output4);
-        if (output4.equals("A"))
-        	feature.add("lex:allCapital=true");
-        else if (output4.startsWith("A")) 
-        	feature.add("lex:beginCapital=true");
-        else if (output4.indexOf('A') >= 0)
-        	feature.add("lex:containCapital=true");
-        
-        if (output4.equals("0"))
-        	feature.add("lex:allDigit=true");
-        else if (output4.startsWith("0")) 
-        	feature.add("lex:beginDigit=true");
-        else if (output4.indexOf('0') >= 0)
-        	feature.add("lex:containDigit=true");
-
-        if (output4.equals("."))
-        	feature.add("lex:allPunc=true");
-        else if (output4.startsWith(".")) 
-        	feature.add("lex:beginPunc=true");
-        else if (output4.indexOf('.') >= 0)
-        	feature.add("lex:containPunc=true");
-        
-        if (output4.replace('A', ' ').replace('a', ' ').replace('0', ' ').replace('.', ' ').trim().length() > 0)
-        	feature.add("lex:containOtherChar=true");
-        
-		return feature;
+		return WordShape.generateLexicalFeature(w);
 	}	
 	
 	@SuppressWarnings("unchecked")
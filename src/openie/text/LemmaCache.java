@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.text;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import openie.util.LRUCache;
+
+/**
+ * Bounded, thread-safe (word, tag) -> lemma cache in front of the Stanford stemmer; see
+ * @FeatureFactory.stem. Word frequencies are Zipfian, so a small cache serves most lookups.
+ * The stemmer runs outside the cache locks.
+ */
+public class LemmaCache extends LRUCache<String, String> {
+
+	static public int DEFAULT_SIZE = 100000;
+
+	public LemmaCache () {
+		this(DEFAULT_SIZE);
+	}
+
+	public LemmaCache (int capacity) {
+		super(capacity);
+	}
+
+	public String lemma (String word, String tag) {
+		String key = tag + '\t' + word;
+		String lemma = get(key);
+		if (lemma == null) {
+			lemma = FeatureFactory.stem(word, tag);
+			put(key, lemma);
+		}
+		return lemma;
+	}
+
+	// warms the cache with the (word, tag) pairs of a tagged corpus, one sentence of word/TAG[/label]
+	// tokens per line (see @FeatureFactory.tokenizeString); returns the number of entries added
+	public int preload (String filename) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(filename));
+		int nAdded = 0;
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				for (String token : line.trim().split(" ")) {
+					String[] units = token.split("/");
+					if (units.length < 2 || units[0].length() == 0)
+						continue;
+					String key = units[1] + '\t' + units[0];
+					if (contains(key))
+						continue;
+					put(key, FeatureFactory.stem(units[0], units[1]));
+					nAdded++;
+				}
+			}
+		} finally {
+			br.close();
+		}
+		return nAdded;
+	}
+
+	@Override
+	public String toString () {
+		return "lemma cache: " + super.toString();
+	}
+}
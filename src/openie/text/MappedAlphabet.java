@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.text;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Read-only @Alphabet over a sorted string table, typically a memory-mapped section
+ * of a model file (see @MappedModel). Nothing is deserialized: lookups binary-search
+ * the UTF-8 bytes in place, so processes mapping the same file share its pages.
+ *
+ * Layout (little-endian): n, offsets[n+1] into the string bytes (in sorted order),
+ * ids[n] of the sorted strings, ranks[n] (sorted position of each id), string bytes.
+ */
+public class MappedAlphabet extends Alphabet {
+
+	private static final long serialVersionUID = 1L;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private transient ByteBuffer buf;
+	private transient int n;
+	private transient int offsetBase, idBase, rankBase, stringBase;
+
+	public MappedAlphabet (ByteBuffer table) {
+		super(0);
+		buf = table.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		n = buf.getInt(0);
+		offsetBase = 4;
+		idBase = offsetBase + 4 * (n + 1);
+		rankBase = idBase + 4 * n;
+		stringBase = rankBase + 4 * n;
+	}
+
+	@Override
+	public int lookup (Object entry, boolean isUpdate) {
+		if (entry == null)
+			throw new IllegalArgumentException("Can't find \"null\" entry in Dictionary");
+
+		int pos = search(((String) entry).getBytes(UTF8));
+		if (pos >= 0)
+			return buf.getInt(idBase + 4 * pos);
+		if (isUpdate)
+			throw new UnsupportedOperationException("Can't add \"" + entry + "\" to a read-only dictionary");
+		return -1;
+	}
+
+	@Override
+	public Object getObject (int index) {
+		return string(buf.getInt(rankBase + 4 * index));
+	}
+
+	@Override
+	public Object[] getObject (int[] indices) {
+		Object[] ret = new Object[indices.length];
+		for (int i = 0; i < indices.length; i++)
+			ret[i] = getObject(indices[i]);
+		return ret;
+	}
+
+	@Override
+	public boolean contains (Object entry) {
+		return lookup(entry, false) >= 0;
+	}
+
+	@Override
+	public int size () {
+		return n;
+	}
+
+	@Override
+	public String toString () {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < n; i++) {
+			sb.append(getObject(i));
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public Object[] toArray () {
+		Object[] ret = new Object[n];
+		for (int i = 0; i < n; i++)
+			ret[i] = getObject(i);
+		return ret;
+	}
+
+	@Override
+	public void clear () {
+		throw new UnsupportedOperationException("read-only dictionary");
+	}
+
+	// serialized as a plain alphabet
+	private Object writeReplace () throws ObjectStreamException {
+		Alphabet copy = new Alphabet(n);
+		for (int i = 0; i < n; i++)
+			copy.lookup(getObject(i), true);
+		return copy;
+	}
+
+	private final String string (int pos) {
+		int start = buf.getInt(offsetBase + 4 * pos), end = buf.getInt(offsetBase + 4 * (pos + 1));
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buf.get(stringBase + start + i);
+		return new String(bytes, UTF8);
+	}
+
+	// sorted position of key, or -1
+	private final int search (byte[] key) {
+		int lo = 0, hi = n - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = compare(mid, key);
+			if (cmp < 0)
+				lo = mid + 1;
+			else if (cmp > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	// unsigned lexicographic order of the UTF-8 bytes, as used by @write
+	private final int compare (int pos, byte[] key) {
+		int start = stringBase + buf.getInt(offsetBase + 4 * pos);
+		int len = stringBase + buf.getInt(offsetBase + 4 * (pos + 1)) - start;
+		int m = Math.min(len, key.length);
+		for (int i = 0; i < m; i++) {
+			int a = buf.get(start + i) & 0xff, b = key[i] & 0xff;
+			if (a != b)
+				return a - b;
+		}
+		return len - key.length;
+	}
+
+	private static int compare (byte[] a, byte[] b) {
+		int m = Math.min(a.length, b.length);
+		for (int i = 0; i < m; i++) {
+			int x = a[i] & 0xff, y = b[i] & 0xff;
+			if (x != y)
+				return x - y;
+		}
+		return a.length - b.length;
+	}
+
+	// writes the string table of dict; returns the number of bytes written
+	public static long write (Alphabet dict, DataOutput out) throws IOException {
+		final int n = dict.size();
+		final byte[][] strings = new byte[n][];
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			strings[i] = ((String) dict.getObject(i)).getBytes(UTF8);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare (Integer a, Integer b) {
+				return MappedAlphabet.compare(strings[a], strings[b]);
+			}
+		});
+
+		ByteBuffer ints = ByteBuffer.allocate(4 * (1 + (n + 1) + n + n)).order(ByteOrder.LITTLE_ENDIAN);
+		ints.putInt(n);
+		int offset = 0;
+		ints.putInt(offset);
+		for (int k = 0; k < n; k++) {
+			offset += strings[order[k]].length;
+			ints.putInt(offset);
+		}
+		for (int k = 0; k < n; k++)
+			ints.putInt(order[k]);
+		int[] ranks = new int[n];
+		for (int k = 0; k < n; k++)
+			ranks[order[k]] = k;
+		for (int i = 0; i < n; i++)
+			ints.putInt(ranks[i]);
+		out.write(ints.array());
+		for (int k = 0; k < n; k++)
+			out.write(strings[order[k]]);
+
+		return ints.capacity() + (long) offset;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.text;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Model file that is opened with FileChannel.map instead of being deserialized.
+ *
+ * Layout (little-endian): magic, version, the offsets of the sections below and of the end of file (longs),
+ * then the sections, each aligned to 8 bytes: model class name (UTF-8), label and input string tables
+ * (see @MappedAlphabet), the CSR parameter index (offsets, labels, params; see @CompactIndex) and the weights.
+ *
+ * The string tables, by far the largest part, stay mapped and shared between processes; the index
+ * and the weights are bulk-copied once into the primitive arrays the inference loops walk, and
+ * @Parameter keeps that weight array as it is.
+ */
+public class MappedModel {
+
+	public static final int MAGIC = 0x4d45494f;	// "OIEM" in file order
+	private static final int CURRENT_VERSION = 1;
+	private static final int N_SECTIONS = 7;
+	private static final int HEADER_SIZE = 8 + 8 * (N_SECTIONS + 1);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	protected String modelType;
+	protected Parameter param;
+
+	// true if filename starts like a mapped model (and not, e.g., a gzipped serialized one)
+	public static boolean accept (String filename) throws IOException {
+		InputStream in = new FileInputStream(filename);
+		try {
+			byte[] b = new byte[4];
+			if (in.read(b) < 4)
+				return false;
+			return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	public static MappedModel open (String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		FileChannel channel = file.getChannel();
+		try {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC)
+				throw new IOException(filename + " is not a mapped model");
+			long[] offsets = new long[N_SECTIONS + 1];
+			for (int i = 0; i <= N_SECTIONS; i++)
+				offsets[i] = header.getLong(8 + 8 * i);
+			ByteBuffer[] sections = new ByteBuffer[N_SECTIONS];
+			for (int i = 0; i < N_SECTIONS; i++)
+				sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], offsets[i+1] - offsets[i]).order(ByteOrder.LITTLE_ENDIAN);
+
+			MappedModel model = new MappedModel();
+			byte[] name = new byte[sections[0].getInt()];
+			sections[0].get(name);
+			model.modelType = new String(name, UTF8);
+
+			Alphabet labelDict = new MappedAlphabet(sections[1]);
+			Alphabet inputDict = new MappedAlphabet(sections[2]);
+			int[] csrOffsets = new int[sections[3].getInt(0)];
+			sections[3].position(8);
+			sections[3].asIntBuffer().get(csrOffsets);
+			int[] csrLabels = new int[sections[4].getInt(0)];
+			sections[4].position(8);
+			sections[4].asIntBuffer().get(csrLabels);
+			int[] csrParams = new int[csrLabels.length];
+			sections[5].asIntBuffer().get(csrParams);
+			double[] weight = new double[(int) (sections[6].getLong())];
+			sections[6].asDoubleBuffer().get(weight);
+
+			CompactIndex compact = new CompactIndex(csrOffsets, csrLabels, csrParams);
+			model.param = new Parameter(inputDict, labelDict, new InvertedIndex(inputDict, labelDict, compact), weight);
+			return model;
+		} finally {
+			// the mappings stay valid after the channel is closed
+			channel.close();
+			file.close();
+		}
+	}
+
+	public static void write (String filename, String modelType, Parameter param) throws IOException {
+		if (param.isHashed())
+			throw new IOException("hashed models have no input strings to map; save them in the serialized format");
+		FileOutputStream fos = new FileOutputStream(filename);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+		CompactIndex compact = param.getCompactIndex();
+		double[] weight = param.getWeight();
+
+		long[] offsets = new long[N_SECTIONS + 1];
+		long pos = HEADER_SIZE;
+		out.write(new byte[HEADER_SIZE]);	// filled in below
+
+		byte[] name = modelType.getBytes(UTF8);
+		offsets[0] = pos;
+		pos += writeInts(out, new int[] {name.length});
+		out.write(name);
+		pos = align(out, pos + name.length);
+
+		offsets[1] = pos;
+		pos = align(out, pos + MappedAlphabet.write(param.getLabelAlphabet(), out));
+		offsets[2] = pos;
+		pos = align(out, pos + MappedAlphabet.write(param.getInputAlphabet(), out));
+
+		// the first value of each int section is its length, then 4 bytes of padding
+		offsets[3] = pos;
+		pos += writeInts(out, new int[] {compact.getOffsets().length, 0});
+		pos = align(out, pos + writeInts(out, compact.getOffsets()));
+		offsets[4] = pos;
+		pos += writeInts(out, new int[] {compact.size(), 0});
+		pos = align(out, pos + writeInts(out, compact.getLabels()));
+		offsets[5] = pos;
+		pos = align(out, pos + writeInts(out, compact.getParams()));
+
+		offsets[6] = pos;
+		ByteBuffer buf = ByteBuffer.allocate(8 * 4096).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putLong(weight.length);
+		for (double w : weight) {
+			if (!buf.hasRemaining()) {
+				out.write(buf.array(), 0, buf.position());
+				buf.clear();
+			}
+			buf.putDouble(w);
+		}
+		out.write(buf.array(), 0, buf.position());
+		pos += 8 + 8L * weight.length;
+		offsets[7] = pos;
+		out.flush();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(CURRENT_VERSION);
+		for (long offset : offsets)
+			header.putLong(offset);
+		header.flip();
+		fos.getChannel().write(header, 0);
+		out.close();
+	}
+
+	// writes the ints little-endian; returns the number of bytes written
+	private static long writeInts (DataOutputStream out, int[] values) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4 * 4096).order(ByteOrder.LITTLE_ENDIAN);
+		for (int v : values) {
+			if (!buf.hasRemaining()) {
+				out.write(buf.array(), 0, buf.position());
+				buf.clear();
+			}
+			buf.putInt(v);
+		}
+		out.write(buf.array(), 0, buf.position());
+		return 4L * values.length;
+	}
+
+	private static long align (DataOutputStream out, long pos) throws IOException {
+		while (pos % 8 != 0) {
+			out.write(0);
+			pos++;
+		}
+		return pos;
+	}
+
+	public String getModelType () {
+		return modelType;
+	}
+
+	public Parameter getParam () {
+		return param;
+	}
+}
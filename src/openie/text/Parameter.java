@@ -33,6 +33,7 @@ public class Parameter implements Serializable {
 	
 	protected TDoubleArrayList weight = new TDoubleArrayList();	// weight (parameter) vector
 	protected TDoubleArrayList count = new TDoubleArrayList();	// empirical count vector; this would be moved outside of class
+	protected transient double[] fixedWeight;	// weights of a read-only model, used in place of weight; see @MappedModel
 
 	public Parameter () {
 		inputDict = new Alphabet();
@@ -40,14 +41,34 @@ public class Parameter implements Serializable {
 		paramIndex = new InvertedIndex(inputDict, labelDict);
 	}
 	
+	// feature hashing mode: input features are hashed into 2^hashBits buckets; see @HashedAlphabet
+	public Parameter (int hashBits) {
+		inputDict = new HashedAlphabet(hashBits);
+		labelDict = new Alphabet();
+		paramIndex = new InvertedIndex(inputDict, labelDict);
+	}
+	
+	public boolean isHashed () {
+		return inputDict instanceof HashedAlphabet;
+	}
+	
 	public Parameter (Alphabet inputDict, Alphabet labelDict, InvertedIndex paramIndex) {
 		this.inputDict = inputDict;
 		this.labelDict = labelDict;
 		this.paramIndex = paramIndex;
 	}
 	
+	// read-only model, e.g. one opened by @MappedModel: the weight array is used in place and there are no counts
+	public Parameter (Alphabet inputDict, Alphabet labelDict, InvertedIndex paramIndex, double[] weight) {
+		this(inputDict, labelDict, paramIndex);
+		this.fixedWeight = weight;
+	}
+	
 	public void clear () {
-		weight.fill(0);
+		if (fixedWeight != null)
+			Arrays.fill(fixedWeight, 0);
+		else
+			weight.fill(0);
 	}
 	
 	public void reset () {
@@ -56,6 +77,7 @@ public class Parameter implements Serializable {
 		paramIndex.clear();
 		weight.clear();
 		count.clear();
+		fixedWeight = null;
 	}
 	
 	public int[] indexing (String label, String[] input, double[] value, boolean isUpdate) {
@@ -76,6 +98,8 @@ public class Parameter implements Serializable {
 			return -1;
 		
 		if (isUpdate) {
+			if (fixedWeight != null)
+				throw new IllegalStateException("can't add parameters to a read-only model");
 			if (fid < weight.size()) {
 				double newValue = count.get(fid) + value;
 				count.set(fid, newValue);
@@ -87,7 +111,7 @@ public class Parameter implements Serializable {
 			}
 		}
 		
-		assert(paramIndex.size() == weight.size());
+		assert(paramIndex.size() == (fixedWeight != null ? fixedWeight.length : weight.size()));
 		return fid;
 	}
 	
@@ -133,13 +157,28 @@ public class Parameter implements Serializable {
 		return paramIndex.getIndex(i);
 	}
 	
+	// freezes the parameter index into its CSR layout; call once the corpus (or model) is loaded
+	public CompactIndex freeze () {
+		return paramIndex.freeze();
+	}
+	
+	public CompactIndex getCompactIndex () {
+		return paramIndex.getCompactIndex();
+	}
+	
 	public void setWeight(double[] weightArray) {
+		if (fixedWeight != null) {
+			System.arraycopy(weightArray, 0, fixedWeight, 0, fixedWeight.length);
+			return;
+		}
 		assert(weightArray.length == weight.size());
 		for (int i = 0; i < weight.size(); i++)
 			weight.set(i, weightArray[i]);
 	}
 	
 	public double[] getWeight () {
+		if (fixedWeight != null)
+			return fixedWeight;
 		return weight.toArray();
 	}
 	
@@ -184,6 +223,12 @@ public class Parameter implements Serializable {
 		out.writeObject(labelDict);
 		out.writeObject(paramIndex);
 		
+		if (fixedWeight != null) {
+			out.writeInt(fixedWeight.length);
+			for (double w : fixedWeight)
+				out.writeDouble(w);
+			return;
+		}
 		out.writeInt(weight.size());
 		for (int i = 0; i < weight.size(); i++)
 			out.writeDouble(weight.get(i));
@@ -194,6 +239,8 @@ public class Parameter implements Serializable {
 		inputDict = (Alphabet) in.readObject();
 		labelDict = (Alphabet) in.readObject();
 		paramIndex = (InvertedIndex) in.readObject();
+		paramIndex.dictX = inputDict;	// not part of the serialized index
+		paramIndex.dictY = labelDict;
 		
 		int size = in.readInt();
 		weight = new TDoubleArrayList();
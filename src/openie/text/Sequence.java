@@ -7,11 +7,21 @@
 
 package openie.text;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
+/**
+ * Sequence of tokens in columnar form: the input ids of token t are
+ * inputs()[start(t) .. end(t)) and its label is label(t). A sequence returned by
+ * @UnitextCorpus is a view over the corpus columns; one built with addElement owns its columns.
+ */
 public class Sequence {
 	
-	protected ArrayList<SparseVector> seq;
+	protected int[] inputs;	// feature ids of all tokens
+	protected double[] values;	// feature values, or null while they are all 1.0
+	protected int[] offsets;	// token t (in the columns) has inputs[offsets[t] .. offsets[t+1])
+	protected int[] labels;
+	protected int from;	// first token of this sequence in the columns
+	protected int length;
 	protected int seq_id;
 	
 	public Sequence() {
@@ -24,41 +34,100 @@ public class Sequence {
 	}
 	
 	public void init() {
-		seq = new ArrayList<SparseVector>();
+		inputs = new int[16];
+		values = null;
+		offsets = new int[9];
+		labels = new int[8];
+		from = 0;
+		length = 0;
 		seq_id = -1;
 	}
 	
-	public Sequence(ArrayList<SparseVector> seq, int id) {
-		setSeq(seq);
+	// view of tokens [from, from + length) of shared columns
+	public Sequence(int[] inputs, double[] values, int[] offsets, int[] labels, int from, int length, int id) {
+		this.inputs = inputs;
+		this.values = values;
+		this.offsets = offsets;
+		this.labels = labels;
+		this.from = from;
+		this.length = length;
 		setId(id);
 	}
 	
-	public ArrayList<SparseVector> getSeq() {
-		return seq;
-	}
-	
 	public int getId() {
 		return seq_id;
 	}
 	
-	public void setSeq(ArrayList<SparseVector> seq) {
-		this.seq = seq;
-	}
-	
 	public void setId(int id) {
 		seq_id = id;
 	}
 	
+	// appends a token; only for sequences that own their columns
 	public void addElement(SparseVector elem) {
-		seq.add(elem);
+		int pos = offsets[length], n = elem.size();
+		if (length == labels.length) {
+			labels = Arrays.copyOf(labels, Math.max(labels.length * 2, 8));
+			offsets = Arrays.copyOf(offsets, labels.length + 1);
+		}
+		if (pos + n > inputs.length) {
+			inputs = Arrays.copyOf(inputs, Math.max(inputs.length * 2, pos + n));
+			if (values != null)
+				values = Arrays.copyOf(values, inputs.length);
+		}
+		System.arraycopy(elem.getIds(), 0, inputs, pos, n);
+		if (elem.getValues() != null && values == null) {
+			values = new double[inputs.length];
+			Arrays.fill(values, 0, pos, 1.0);
+		}
+		if (values != null) {
+			for (int i = 0; i < n; i++)
+				values[pos + i] = elem.getValue(i);
+		}
+		labels[length] = elem.getLabel();
+		offsets[++length] = pos + n;
+	}
+	
+	// releases the spare capacity of the owned columns
+	public void trim() {
+		int n = offsets[length];
+		inputs = Arrays.copyOf(inputs, n);
+		if (values != null)
+			values = Arrays.copyOf(values, n);
+		offsets = Arrays.copyOf(offsets, length + 1);
+		labels = Arrays.copyOf(labels, length);
+	}
+	
+	// copy of token t
+	public SparseVector at(int t) {
+		SparseVector ret = new SparseVector(label(t), end(t) - start(t));
+		for (int k = start(t); k < end(t); k++)
+			ret.addElement(inputs[k], values == null ? 1.0 : values[k]);
+		return ret;
+	}
+	
+	public int label(int t) {
+		return labels[from + t];
+	}
+	
+	// first position of token t in inputs() (and values())
+	public int start(int t) {
+		return offsets[from + t];
+	}
+	
+	public int end(int t) {
+		return offsets[from + t + 1];
+	}
+	
+	public int[] inputs() {
+		return inputs;
 	}
 	
-	public SparseVector at(int i) {
-		return seq.get(i);
+	public double[] values() {
+		return values;
 	}
 	
 	public int size() {
-		return seq.size();		
+		return length;
 	}
 	
 }
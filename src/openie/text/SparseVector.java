@@ -8,31 +8,48 @@
 package openie.text;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
+/**
+ * Packed sparse input vector: the feature ids in an int array and, only once a value
+ * other than 1.0 is added, the values in a parallel double array. Loops should walk
+ * getIds()/getValues() up to size() rather than getElement(), which allocates.
+ */
 public class SparseVector {
 	
-	protected ArrayList<IntElement> input;
+	private static final int[] EMPTY = new int[0];
+	
+	protected int[] ids;
+	protected double[] vals;	// null while every value is 1.0
+	protected int size;
 	protected int label;
 	protected int count;
 	
 	public SparseVector () {
 		this.label = -1;
-		this.input = new ArrayList<IntElement>();
+		this.ids = EMPTY;
 		this.count = 0;
 	}
 	
 	public SparseVector (int label) {
 		this.label = label;
-		this.input = new ArrayList<IntElement>();
+		this.ids = EMPTY;
 		this.count = 1;
 	}
 	
-	public SparseVector (int label, ArrayList<IntElement> obs) {
+	// with room for capacity elements, e.g. the number of features of a token
+	public SparseVector (int label, int capacity) {
 		this.label = label;
-		this.input = obs;
+		this.ids = new int[capacity];
 		this.count = 1;
 	}
 	
+	public SparseVector (int label, ArrayList<IntElement> obs) {
+		this(label, obs.size());
+		for (IntElement p : obs)
+			addElement(p);
+	}
+	
 	public void setLabel (int l) {
 		label = l;
 	}
@@ -41,12 +58,38 @@ public class SparseVector {
 		return label;
 	}
 	
+	public int size () {
+		return size;
+	}
+	
+	// feature ids; valid up to size()
+	public int[] getIds () {
+		return ids;
+	}
+	
+	// feature values; valid up to size(), or null if they are all 1.0
+	public double[] getValues () {
+		return vals;
+	}
+	
+	public int getId (int i) {
+		return ids[i];
+	}
+	
+	public double getValue (int i) {
+		return vals == null ? 1.0 : vals[i];
+	}
+	
+	// boxed copy of the elements
 	public ArrayList<IntElement> getElement () {
-		return input;
+		ArrayList<IntElement> ret = new ArrayList<IntElement>(size);
+		for (int i = 0; i < size; i++)
+			ret.add(getElement(i));
+		return ret;
 	}
 	
 	public IntElement getElement (int i) {
-		return input.get(i);
+		return new IntElement(ids[i], getValue(i));
 	}
 	
 	public int getCount () {
@@ -54,12 +97,31 @@ public class SparseVector {
 	}
 	
 	public void addElement (IntElement p) {
-		input.add(p);
+		addElement(p.id, p.val);
 	}
 	
 	public void addElement (int id, double val) {
-		IntElement p = new IntElement(id, val);
-		input.add(p);
+		if (size == ids.length)
+			ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+		if (vals == null && val != 1.0) {
+			vals = new double[ids.length];
+			Arrays.fill(vals, 0, size, 1.0);
+		}
+		if (vals != null) {
+			if (vals.length < ids.length)
+				vals = Arrays.copyOf(vals, ids.length);
+			vals[size] = val;
+		}
+		ids[size++] = id;
+	}
+	
+	// releases the unused capacity
+	public void trim () {
+		if (ids.length > size) {
+			ids = Arrays.copyOf(ids, size);
+			if (vals != null)
+				vals = Arrays.copyOf(vals, size);
+		}
 	}
 	
 	public void addCount (int c) {
@@ -70,7 +132,7 @@ public class SparseVector {
 		count ++;
 	}
 	
-	public class IntElement {
+	public static class IntElement {
 	    public int id;
 	    public double val;
 
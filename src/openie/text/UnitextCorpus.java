@@ -7,36 +7,57 @@
 
 package openie.text;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
 
+/**
+ * Corpus of sequences stored column-wise: the tokens of all sequences are kept in one
+ * @Sequence (input ids, token offsets and labels in a few large arrays) and sequence n spans
+ * tokens [seqOffsets[n], seqOffsets[n+1]). get(i) returns a view, so no per-token objects live in the heap.
+ */
 public class UnitextCorpus {
 
-	protected ArrayList<Sequence> data;
+	private transient Logger logger = Logger.getLogger(UnitextCorpus.class);
+
+	protected Sequence columns;	// all tokens
+	protected int[] seqOffsets;
+	protected int nSequences;
+	protected int[] order;	// visiting order of the sequences, or null if unshuffled; see @shuffle
 	protected Parameter param;
 	
-	protected int numOfElement;
+	// binary cache of the feature file, written next to it on the first read if enabled; see @readCache
+	protected boolean useCache = false;
+	static public String CACHE_SUFFIX = ".bin";
+	static public int CACHE_WINDOW = 1 << 30;	// bytes of the cache mapped at a time
+	private static final int CACHE_MAGIC = 0x55435232;	// "UCR2"
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	
 	public UnitextCorpus () {
-		data = new ArrayList<Sequence>();
-		param = new Parameter();
-		numOfElement = 0;
+		this(new Parameter());
 	}
 
 	public UnitextCorpus (Parameter param) {
-		data = new ArrayList<Sequence>();
 		this.param = param;
-		numOfElement = 0;
+		columns = new Sequence();
+		seqOffsets = new int[16];
+		nSequences = 0;
+	}
+	
+	public void setCache (boolean useCache) {
+		this.useCache = useCache;
 	}
 	
 	public boolean readFile (String filename, boolean isUpdate) throws IOException {
-		FileReader fr = new FileReader(filename);
-		BufferedReader br = new BufferedReader(fr);
-		String line = null;
-		String prev_label = "";
-		
 		// initialization for OpenIE; pre-defined labels - ENT, NP
 		Alphabet labelDict = param.getLabelAlphabet();
 		int entLabelId = labelDict.lookup("ENT", true);
@@ -44,42 +65,324 @@ public class UnitextCorpus {
 		assert (entLabelId == 0);
 		assert (npLabelId == 1);
 
-		Sequence seq = new Sequence();
+		File source = new File(filename), cache = new File(filename + CACHE_SUFFIX);
+		if (!useCache || !readCache(source, cache, isUpdate))
+			readText(source, cache, isUpdate);
+		columns.trim();
+		
+		param.makeEdgeIndex(isUpdate);
+		param.freeze();
+		
+		return true;
+	}
+	
+	private void readText (File source, File cache, boolean isUpdate) throws IOException {
+		FileReader fr = new FileReader(source);
+		BufferedReader br = new BufferedReader(fr);
+		String line = null;
+		String prev_label = "";
+		CacheWriter writer = useCache ? new CacheWriter(source, cache) : null;
+
 		while ((line = br.readLine()) != null) {
 			if (line.startsWith("#"))
 				continue;
 			String[] tokens = line.trim().split(" ", -1);
 			if (tokens.length < 2) { // smth strange; len(blank line) = 1
-				if (seq.size() > 0)
-					append(seq);
-				seq = new Sequence();
+				endSequence();
+				if (writer != null)
+					writer.endSequence();
 				prev_label = "";
 				continue;
 			}
-			seq.addElement(pack(tokens, isUpdate));
+			columns.addElement(pack(tokens, isUpdate));
+			if (writer != null)
+				writer.addToken(tokens);
 			// todo: refactoring the following code for making edge (transition) feature index
 //			if (prev_label != "" && isUpdate) 
 //				param.indexingEdge(tokens[0], prev_label, 1.0);
 //			prev_label = tokens[0];
 		}
-		if (seq.size() > 0)
-			append(seq);
+		endSequence();
 		
 		br.close(); fr.close();
-		param.makeEdgeIndex(isUpdate);
 		
+		if (writer != null) {
+			writer.endSequence();
+			writer.close();
+		}
+	}
+	
+	/*
+	 * Cache layout (big-endian): magic, source length (long), source mtime (long), offset of the
+	 * string tables (long), number of sequences, then for each sequence its length followed by its
+	 * tokens as (label, number of inputs, inputs...) in file-local ids, the label and input string
+	 * tables (count, then length-prefixed UTF-8 strings) and the magic again. Every value is 1.0.
+	 *
+	 * The sequences are written while the text is parsed, so only the file-local dictionaries and
+	 * the current sequence are held in memory.
+	 */
+	private class CacheWriter {
+		private File source, cache, tmp;
+		private FileOutputStream fos;
+		private DataOutputStream out;
+		private Alphabet labels = new Alphabet(), inputs = new Alphabet();
+		private TIntArrayList sequence = new TIntArrayList();	// tokens of the current sequence
+		private int length, count;
+
+		CacheWriter (File source, File cache) {
+			this.source = source;
+			this.cache = cache;
+			tmp = new File(cache.getPath() + ".tmp");
+			try {
+				fos = new FileOutputStream(tmp);
+				out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+				out.writeInt(CACHE_MAGIC);
+				out.writeLong(source.length());
+				out.writeLong(source.lastModified());
+				out.writeLong(0);	// offset of the tables, filled in by close
+				out.writeInt(0);	// number of sequences, too
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+
+		void addToken (String[] tokens) {
+			if (out == null)
+				return;
+			sequence.add(labels.lookup(tokens[0], true));
+			sequence.add(tokens.length - 1);
+			for (int i = 1; i < tokens.length; i++)
+				sequence.add(inputs.lookup(tokens[i], true));
+			length++;
+		}
+
+		void endSequence () {
+			if (out == null || length == 0)
+				return;
+			try {
+				out.writeInt(length);
+				for (int i = 0; i < sequence.size(); i++)
+					out.writeInt(sequence.get(i));
+				count++;
+			} catch (IOException e) {
+				fail(e);
+			}
+			sequence.resetQuick();
+			length = 0;
+		}
+
+		void close () {
+			if (out == null)
+				return;
+			try {
+				out.flush();
+				long tables = fos.getChannel().position();
+				for (Alphabet dict : new Alphabet[] {labels, inputs}) {
+					out.writeInt(dict.size());
+					for (int i = 0; i < dict.size(); i++) {
+						byte[] bytes = ((String) dict.getObject(i)).getBytes(UTF8);
+						out.writeInt(bytes.length);
+						out.write(bytes);
+					}
+				}
+				out.writeInt(CACHE_MAGIC);
+				out.flush();
+				ByteBuffer header = ByteBuffer.allocate(12);
+				header.putLong(tables);
+				header.putInt(count);
+				header.flip();
+				fos.getChannel().write(header, 4 + 8 + 8);
+				out.close();
+				out = null;
+				if (!tmp.renameTo(cache))
+					throw new IOException("cannot rename " + tmp);
+				logger.info("corpus cache written to " + cache);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+
+		private void fail (IOException e) {
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException ignored) {
+			}
+			out = null;
+			tmp.delete();
+			logger.warn("corpus cache not written: " + e.getMessage());
+		}
+	}
+	
+	// memory-maps the cache and replays its ids through the parameter dictionaries, in the order
+	// the text reader would; false, with nothing read, if there is no cache or it is stale or damaged
+	private boolean readCache (File source, File cache, boolean isUpdate) throws IOException {
+		if (!cache.exists())
+			return false;
+		
+		FileInputStream in = new FileInputStream(cache);
+		FileChannel channel = in.getChannel();
+		try {
+			MappedInput buf = new MappedInput(channel);
+			String[] labels, inputs;
+			long sequences;
+			int count;
+			// the whole file is checked before the dictionaries are touched
+			try {
+				if (channel.size() < 4 + 8 + 8 + 8 + 4 + 4 || buf.getInt() != CACHE_MAGIC
+						|| buf.getLong() != source.length() || buf.getLong() != source.lastModified())
+					return false;
+				long tables = buf.getLong();
+				count = buf.getInt();
+				sequences = buf.position();
+				buf.seek(channel.size() - 4);
+				if (buf.getInt() != CACHE_MAGIC)
+					return false;
+				buf.seek(tables);
+				labels = readTable(buf);
+				inputs = readTable(buf);
+				if (buf.position() != channel.size() - 4)
+					return false;
+				buf.seek(sequences);
+				for (int n = 0; n < count; n++) {
+					int length = buf.getInt();
+					if (length <= 0)
+						return false;
+					for (int t = 0; t < length; t++) {
+						int y = buf.getInt(), nInputs = buf.getInt();
+						if (y < 0 || y >= labels.length || nInputs < 0)
+							return false;
+						for (int i = 0; i < nInputs; i++) {
+							int x = buf.getInt();
+							if (x < 0 || x >= inputs.length)
+								return false;
+						}
+					}
+				}
+				if (buf.position() != tables)
+					return false;
+			} catch (RuntimeException e) {
+				logger.warn("corpus cache " + cache + " is damaged: " + e);
+				return false;
+			}
+			
+			// local to parameter ids
+			int[] labelIds = new int[labels.length];
+			for (int i = 0; i < labelIds.length; i++)
+				labelIds[i] = param.getLabelAlphabet().lookup(labels[i], isUpdate);
+			int[] inputIds = new int[inputs.length];
+			for (int i = 0; i < inputIds.length; i++)
+				inputIds[i] = param.getInputAlphabet().lookup(inputs[i], isUpdate);
+			
+			buf.seek(sequences);
+			for (int n = 0; n < count; n++) {
+				int length = buf.getInt();
+				for (int t = 0; t < length; t++) {
+					int y = labelIds[buf.getInt()];
+					int nInputs = buf.getInt();
+					SparseVector elem = new SparseVector(y, nInputs);
+					for (int i = 0; i < nInputs; i++) {
+						int x = inputIds[buf.getInt()];
+						param.lookup(y, x, 1, isUpdate);
+						if (x >= 0)
+							elem.addElement(x, 1);
+					}
+					columns.addElement(elem);
+				}
+				endSequence();
+			}
+		} finally {
+			channel.close();
+			in.close();
+		}
+		logger.info("corpus read from cache " + cache);
 		return true;
 	}
 	
+	private static String[] readTable (MappedInput buf) throws IOException {
+		String[] table = new String[buf.getInt()];
+		for (int i = 0; i < table.length; i++)
+			table[i] = buf.getString();
+		return table;
+	}
+	
+	// reads a file through mapped windows of at most CACHE_WINDOW bytes, so caches over 2GB are read too
+	private static class MappedInput {
+		private FileChannel channel;
+		private MappedByteBuffer buf;
+		private long offset;	// of the window in the file
+
+		MappedInput (FileChannel channel) throws IOException {
+			this.channel = channel;
+			map(0);
+		}
+
+		private void map (long position) throws IOException {
+			offset = position;
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CACHE_WINDOW, channel.size() - position));
+		}
+
+		// the window, moved if the next n bytes are past its end
+		private MappedByteBuffer next (int n) throws IOException {
+			if (buf.remaining() < n)
+				map(offset + buf.position());
+			return buf;
+		}
+
+		long position () {
+			return offset + buf.position();
+		}
+
+		void seek (long position) throws IOException {
+			if (position >= offset && position <= offset + buf.limit())
+				buf.position((int) (position - offset));
+			else
+				map(position);
+		}
+
+		int getInt () throws IOException {
+			return next(4).getInt();
+		}
+
+		long getLong () throws IOException {
+			return next(8).getLong();
+		}
+
+		String getString () throws IOException {
+			int n = getInt();
+			if (n < 0)
+				throw new IllegalArgumentException("negative string length");
+			byte[] bytes = new byte[n];
+			next(bytes.length).get(bytes);
+			return new String(bytes, UTF8);
+		}
+	}
+	
 	public void append (Sequence instance) {
-		data.add(instance);
-		numOfElement += instance.size();
+		for (int t = 0; t < instance.size(); t++)
+			columns.addElement(instance.at(t));
+		endSequence();
+	}
+	
+	// closes the sequence of the tokens added since the last call; returns its length
+	private int endSequence () {
+		int length = columns.size() - seqOffsets[nSequences];
+		if (length > 0) {
+			if (nSequences + 1 == seqOffsets.length)
+				seqOffsets = Arrays.copyOf(seqOffsets, seqOffsets.length * 2);
+			seqOffsets[++nSequences] = columns.size();
+			if (order != null) {
+				order = Arrays.copyOf(order, nSequences);
+				order[nSequences - 1] = nSequences - 1;
+			}
+		}
+		return length;
 	}
 	
 	static public String elimiter = ":";
 	
 	private SparseVector pack (String[] tokens, boolean isUpdate) {
-		SparseVector ret = new SparseVector();
+		SparseVector ret = new SparseVector(-1, tokens.length - 1);
 		String[] inputs = new String[tokens.length - 1];
 		double[] values = new double[tokens.length - 1];
 		for (int i = 1; i < tokens.length; i++) {
@@ -102,23 +405,56 @@ public class UnitextCorpus {
 			if (ids[i] >= 0)
 				ret.addElement(ids[i], values[i-1]);
 		}
+		ret.trim();
 		
 		return ret;
 	}
 		
+	// permutes the visiting order the same way Collections.shuffle permutes a list
 	public void shuffle (java.util.Random r) {
-		Collections.shuffle(this.data, r);
+		if (order == null) {
+			order = new int[nSequences];
+			for (int i = 0; i < nSequences; i++)
+				order[i] = i;
+		}
+		for (int i = nSequences; i > 1; i--) {
+			int j = r.nextInt(i);
+			int tmp = order[i-1]; order[i-1] = order[j]; order[j] = tmp;
+		}
 	}
 	
 	public int size () {
-		return data.size();
+		return nSequences;
+	}
+	
+	// view of the i-th sequence (in the current order) over the corpus columns
+	public Sequence get (int i) {
+		int n = order == null ? i : order[i];
+		return new Sequence(columns.inputs, columns.values, columns.offsets, columns.labels,
+				seqOffsets[n], seqOffsets[n+1] - seqOffsets[n], n);
 	}
 	
 	public int sizeElement () {
-		return numOfElement;
+		return columns.size();
 	}
 	
 	public Iterator<Sequence> iterator () {
-		return data.iterator();
+		return new Iterator<Sequence>() {
+			private int i = 0;
+			
+			public boolean hasNext () {
+				return i < nSequences;
+			}
+			
+			public Sequence next () {
+				if (i >= nSequences)
+					throw new NoSuchElementException();
+				return get(i++);
+			}
+			
+			public void remove () {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 }
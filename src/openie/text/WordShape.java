@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.text;
+
+import java.util.ArrayList;
+
+import openie.util.LRUCache;
+
+/**
+ * Word shape of the lexical features ("regex=" and "lex:*"): runs of [A-Z], [a-z], [0-9] and
+ * punctuation become A, a, 0 and '.', other characters are kept. It is the result of the four
+ * chained regex replacements it replaces, computed in one pass and cached per token.
+ */
+public class WordShape {
+
+	static public int CACHE_SIZE = 50000;
+
+	// lex:* feature names without their "lex:" prefix
+	public static final String ALL_CAPITAL = "allCapital=true", BEGIN_CAPITAL = "beginCapital=true", CONTAIN_CAPITAL = "containCapital=true";
+	public static final String ALL_DIGIT = "allDigit=true", BEGIN_DIGIT = "beginDigit=true", CONTAIN_DIGIT = "containDigit=true";
+	public static final String ALL_PUNC = "allPunc=true", BEGIN_PUNC = "beginPunc=true", CONTAIN_PUNC = "containPunc=true";
+	public static final String CONTAIN_OTHER_CHAR = "containOtherChar=true";
+
+	private static final LRUCache<String, String> cache = new LRUCache<String, String>(CACHE_SIZE);
+
+	public static String shape (String w) {
+		String s = cache.get(w);
+		if (s == null) {
+			s = computeShape(w);
+			cache.put(w, s);
+		}
+		return s;
+	}
+
+	public static String computeShape (String w) {
+		StringBuilder sb = null;	// only allocated if the shape differs from w
+		char prev = 0;
+		for (int i = 0; i < w.length(); ) {
+			int c = w.codePointAt(i);
+			int n = Character.charCount(c);
+			char cls = shapeClass(c);
+			if (cls != 0) {
+				boolean same = cls == prev;
+				prev = cls;
+				if (sb == null && (same || cls != c)) {
+					sb = new StringBuilder(w.length());
+					sb.append(w, 0, i);
+				}
+				if (sb != null && !same)
+					sb.append(cls);
+			} else {
+				prev = 0;
+				if (sb != null)
+					sb.append(w, i, i + n);
+			}
+			i += n;
+		}
+		return sb == null ? w : sb.toString();
+	}
+
+	// A, a, 0 or '.', or 0 for a character that is kept as is
+	private static final char shapeClass (int c) {
+		if (c >= 'A' && c <= 'Z')
+			return 'A';
+		if (c >= 'a' && c <= 'z')
+			return 'a';
+		if (c >= '0' && c <= '9')
+			return '0';
+		switch (Character.getType(c)) {
+		case Character.CONNECTOR_PUNCTUATION:
+		case Character.DASH_PUNCTUATION:
+		case Character.START_PUNCTUATION:
+		case Character.END_PUNCTUATION:
+		case Character.INITIAL_QUOTE_PUNCTUATION:
+		case Character.FINAL_QUOTE_PUNCTUATION:
+		case Character.OTHER_PUNCTUATION:
+			return '.';
+		default:
+			return 0;
+		}
+	}
+
+	// appends the names of the lex:* features of a shape
+	public static void lexicalFeatures (String shape, ArrayList<String> names) {
+		if (shape.equals("A"))
+			names.add(ALL_CAPITAL);
+		else if (shape.startsWith("A"))
+			names.add(BEGIN_CAPITAL);
+		else if (shape.indexOf('A') >= 0)
+			names.add(CONTAIN_CAPITAL);
+
+		if (shape.equals("0"))
+			names.add(ALL_DIGIT);
+		else if (shape.startsWith("0"))
+			names.add(BEGIN_DIGIT);
+		else if (shape.indexOf('0') >= 0)
+			names.add(CONTAIN_DIGIT);
+
+		if (shape.equals("."))
+			names.add(ALL_PUNC);
+		else if (shape.startsWith("."))
+			names.add(BEGIN_PUNC);
+		else if (shape.indexOf('.') >= 0)
+			names.add(CONTAIN_PUNC);
+
+		// any character left after blanking the classes that String.trim would not strip
+		for (int i = 0; i < shape.length(); i++) {
+			char c = shape.charAt(i);
+			if (c != 'A' && c != 'a' && c != '0' && c != '.' && c > ' ') {
+				names.add(CONTAIN_OTHER_CHAR);
+				break;
+			}
+		}
+	}
+
+	// "regex=" and "lex:*" features of a word
+	public static ArrayList<String> generateLexicalFeature (String w) {
+		ArrayList<String> feature = new ArrayList<String>();
+		String shape = shape(w);
+		feature.add("regex=" + shape);
+		ArrayList<String> names = new ArrayList<String>(4);
+		lexicalFeatures(shape, names);
+		for (String name : names)
+			feature.add("lex:" + name);
+		return feature;
+	}
+
+	public static LRUCache<String, String> getCache () {
+		return cache;
+	}
+}
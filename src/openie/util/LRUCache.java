@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe cache with hit, miss and eviction counters. The entries are spread
+ * over independently locked segments, each evicting its least recently used entry when full.
+ */
+public class LRUCache<K, V> {
+
+	private static final int N_SEGMENTS = 16;
+
+	private final Segment[] segments;
+	private final int capacity;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private class Segment extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		Segment (int capacity) {
+			super(16, 0.75f, true);	// access order
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry (Map.Entry<K, V> eldest) {
+			if (size() > capacity) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public LRUCache (int capacity) {
+		if (capacity < N_SEGMENTS)
+			throw new IllegalArgumentException("cache too small: " + capacity);
+		this.capacity = capacity;
+		segments = (Segment[]) java.lang.reflect.Array.newInstance(Segment.class, N_SEGMENTS);
+		for (int i = 0; i < N_SEGMENTS; i++)
+			segments[i] = new Segment(capacity / N_SEGMENTS);
+	}
+
+	// cached value, or null (counted as a miss)
+	public V get (K key) {
+		Segment segment = segmentFor(key);
+		V value;
+		synchronized (segment) {
+			value = segment.get(key);
+		}
+		(value != null ? hits : misses).incrementAndGet();
+		return value;
+	}
+
+	public void put (K key, V value) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	// does not count as a hit or a miss, nor refresh the entry
+	public boolean contains (K key) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.containsKey(key);
+		}
+	}
+
+	private final Segment segmentFor (K key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return segments[(h & 0x7fffffff) % N_SEGMENTS];
+	}
+
+	public int size () {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public int capacity () {
+		return capacity;
+	}
+
+	public long getHits () {
+		return hits.get();
+	}
+
+	public long getMisses () {
+		return misses.get();
+	}
+
+	public long getEvictions () {
+		return evictions.get();
+	}
+
+	public double hitRate () {
+		long h = hits.get(), m = misses.get();
+		return h + m > 0 ? (double) h / (h + m) : 0;
+	}
+
+	public void clear () {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	@Override
+	public String toString () {
+		return String.format("%d/%d entries, %d hits, %d misses (%.1f%%), %d evictions",
+				size(), capacity, hits.get(), misses.get(), 100 * hitRate(), evictions.get());
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in microseconds, for percentiles of request times.
+ * Values below 16 are exact; above, each power of two is split into 8 buckets, so a
+ * reported percentile (the upper bound of its bucket) is at most 12.5% above the true value.
+ */
+public class LatencyHistogram {
+
+	private static final int EXACT = 16;
+	private static final int SUB_BUCKETS = 8;
+	private static final int N_BUCKETS = EXACT + SUB_BUCKETS * (63 - 4);
+
+	private final AtomicLongArray counts = new AtomicLongArray(N_BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record (long micros) {
+		if (micros < 0)
+			micros = 0;
+		counts.incrementAndGet(index(micros));
+		total.incrementAndGet();
+		sum.addAndGet(micros);
+		long m;
+		while (micros > (m = max.get()) && !max.compareAndSet(m, micros))
+			;
+	}
+
+	public void recordNanos (long nanos) {
+		record(nanos / 1000);
+	}
+
+	private static final int index (long v) {
+		if (v < EXACT)
+			return (int) v;
+		int e = 63 - Long.numberOfLeadingZeros(v);	// >= 4
+		int mantissa = (int) (v >>> (e - 3));	// top 4 bits, in [8, 16)
+		return EXACT + (e - 4) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+	}
+
+	// largest value of bucket i
+	private static final long upperBound (int i) {
+		if (i < EXACT)
+			return i;
+		int e = (i - EXACT) / SUB_BUCKETS + 4;
+		long mantissa = (i - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << (e - 3)) - 1;
+	}
+
+	// p in [0, 100]; 0 if nothing was recorded
+	public long percentile (double p) {
+		long n = total.get();
+		if (n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < N_BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	public long count () {
+		return total.get();
+	}
+
+	public double mean () {
+		long n = total.get();
+		return n > 0 ? (double) sum.get() / n : 0;
+	}
+
+	public long max () {
+		return max.get();
+	}
+
+	public void reset () {
+		for (int i = 0; i < N_BUCKETS; i++)
+			counts.set(i, 0);
+		total.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString () {
+		return String.format("n=%d mean=%.0fus p50=%dus p90=%dus p99=%dus max=%dus",
+				count(), mean(), percentile(50), percentile(90), percentile(99), max());
+	}
+}
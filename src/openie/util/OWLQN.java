@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.util;
+
+import java.util.LinkedList;
+
+import no.uib.cipr.matrix.DenseVector;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Orthant-Wise Limited-memory Quasi-Newton optimizer (Andrew and Gao, 2007),
+ * i.e. L-BFGS for objectives of the form loss(x) + l1prior * |x|_1.
+ */
+public class OWLQN {
+
+	private transient Logger logger = Logger.getLogger(OWLQN.class);
+
+	public interface Function {
+		// returns the (unregularized) loss at x and writes its gradient into grad
+		public double evaluate (double[] x, double[] grad);
+		// called after each iteration with its number, the regularized objective and the accepted point
+		public void iteration (int niter, double value, double[] x);
+	}
+
+	private static final double GAMMA = 1E-04;	// sufficient decrease for the backtracking line search
+	private static final int MAX_BACKTRACK = 50;
+
+	private double l1prior;
+	private int maxiter;
+	private double eta;
+	private int memory;
+
+	public OWLQN (double l1prior, int maxiter, double eta, int memory) {
+		this.l1prior = l1prior;
+		this.maxiter = maxiter;
+		this.eta = eta;
+		this.memory = memory;
+	}
+
+	// minimizes the regularized objective starting from (and overwriting) x; returns its final value
+	public double minimize (Function func, double[] x) {
+		int n = x.length;
+		double[] grad = new double[n];
+		double[] pgrad = new double[n];	// pseudo-gradient
+		double[] dir = new double[n];
+		double[] newX = new double[n];
+		double[] newGrad = new double[n];
+		LinkedList<DenseVector> sList = new LinkedList<DenseVector>();
+		LinkedList<DenseVector> yList = new LinkedList<DenseVector>();
+		LinkedList<Double> rhoList = new LinkedList<Double>();
+
+		double value = func.evaluate(x, grad) + l1prior * norm1(x);
+		double prevValue = value;
+
+		for (int niter = 0; niter < maxiter; niter++) {
+			pseudoGradient(x, grad, pgrad);
+			direction(pgrad, dir, sList, yList, rhoList);
+
+			// constrain the direction to the orthant of steepest descent
+			for (int i = 0; i < n; i++)
+				if (dir[i] * pgrad[i] >= 0)
+					dir[i] = 0;
+
+			double dirNorm = Math.sqrt(dot(dir, dir));
+			if (dirNorm == 0)
+				break;
+
+			// backtracking line search along the projected direction
+			double step = sList.isEmpty() ? 1.0 / dirNorm : 1.0;
+			double newValue = value;
+			int nBacktrack = 0;
+			for ( ; nBacktrack < MAX_BACKTRACK; nBacktrack++, step *= 0.5) {
+				double decrease = 0;
+				for (int i = 0; i < n; i++) {
+					double orthant = x[i] != 0 ? x[i] : -pgrad[i];
+					newX[i] = x[i] + step * dir[i];
+					if (newX[i] * orthant <= 0)
+						newX[i] = 0;
+					decrease += pgrad[i] * (newX[i] - x[i]);
+				}
+				newValue = func.evaluate(newX, newGrad) + l1prior * norm1(newX);
+				if (newValue <= value + GAMMA * decrease)
+					break;
+			}
+			if (nBacktrack == MAX_BACKTRACK) {
+				logger.info(String.format("[%d] line search failed; stopped", niter+1));
+				func.evaluate(x, grad);	// leave the function at the last accepted point
+				break;
+			}
+
+			// curvature pair
+			DenseVector s = new DenseVector(n), y = new DenseVector(n);
+			for (int i = 0; i < n; i++) {
+				s.set(i, newX[i] - x[i]);
+				y.set(i, newGrad[i] - grad[i]);
+			}
+			double sy = s.dot(y);
+			if (sy > 0) {
+				if (sList.size() == memory) {
+					sList.removeFirst(); yList.removeFirst(); rhoList.removeFirst();
+				}
+				sList.add(s); yList.add(y); rhoList.add(1.0 / sy);
+			}
+
+			System.arraycopy(newX, 0, x, 0, n);
+			System.arraycopy(newGrad, 0, grad, 0, n);
+			prevValue = value;
+			value = newValue;
+
+			logger.info(String.format("[%d] %e (%d) step=%.3e", niter+1, value, numNonZero(x), step));
+			func.iteration(niter+1, value, x);
+			if (Math.abs(value - prevValue) / (Math.abs(value) + Math.abs(prevValue)) < eta)
+				break;
+		}
+
+		return value;
+	}
+
+	private final void pseudoGradient (double[] x, double[] grad, double[] pgrad) {
+		for (int i = 0; i < x.length; i++) {
+			if (x[i] < 0)
+				pgrad[i] = grad[i] - l1prior;
+			else if (x[i] > 0)
+				pgrad[i] = grad[i] + l1prior;
+			else if (grad[i] + l1prior < 0)
+				pgrad[i] = grad[i] + l1prior;
+			else if (grad[i] - l1prior > 0)
+				pgrad[i] = grad[i] - l1prior;
+			else
+				pgrad[i] = 0;
+		}
+	}
+
+	// two-loop recursion; dir = -H * pgrad
+	private final void direction (double[] pgrad, double[] dir, LinkedList<DenseVector> sList, LinkedList<DenseVector> yList, LinkedList<Double> rhoList) {
+		DenseVector q = new DenseVector(dir, false);
+		q.set(new DenseVector(pgrad, false));
+
+		int k = sList.size();
+		double[] a = new double[k];
+		for (int i = k - 1; i >= 0; i--) {
+			a[i] = rhoList.get(i) * sList.get(i).dot(q);
+			q.add(-a[i], yList.get(i));
+		}
+		if (k > 0) {
+			DenseVector y = yList.getLast();
+			q.scale(1.0 / (rhoList.getLast() * y.dot(y)));
+		}
+		for (int i = 0; i < k; i++) {
+			double b = rhoList.get(i) * yList.get(i).dot(q);
+			q.add(a[i] - b, sList.get(i));
+		}
+		q.scale(-1);
+	}
+
+	private static double dot (double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++)
+			sum += a[i] * b[i];
+		return sum;
+	}
+
+	private static double norm1 (double[] x) {
+		double sum = 0;
+		for (double v : x)
+			sum += Math.abs(v);
+		return sum;
+	}
+
+	private static int numNonZero (double[] x) {
+		int n = 0;
+		for (double v : x)
+			if (v != 0)
+				n++;
+		return n;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2010 Minwoo Jeong (minwoo.j@gmail.com).
+ * This file is part of the "bitextOpenIE" distribution.
+ * http://github.com/minwoo/bitextOpenIE/
+ * This software is provided under the terms of LGPL.
+ */
+
+package openie.util;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Per-epoch training telemetry: wall time, tokens/s, sequences/s, GC time, heap use, and the
+ * model's objective, accuracy, L1 norm and non-zero count. Every epoch is logged at INFO to the
+ * "openie.util.TrainingMetrics" logger, so it can get its own appender, and, with the
+ * "metrics_file" option, appended to a CSV file (or JSON lines if the name ends in .json).
+ */
+public class TrainingMetrics {
+
+	private static Logger logger = Logger.getLogger(TrainingMetrics.class);
+
+	private static final String[] COLUMNS = {"model", "epoch", "seconds", "tokens_per_sec", "sequences_per_sec",
+		"gc_seconds", "heap_mb", "objective", "accuracy", "l1", "nonzero"};
+
+	protected String model;
+	protected PrintWriter out;
+	protected boolean json;
+
+	private long startTime, startGC;
+
+	public TrainingMetrics (String model) {
+		this.model = model;
+	}
+
+	// metrics of a model class, written to the file of the "metrics_file" option if any
+	public static TrainingMetrics fromOption (Configure option, String model) {
+		TrainingMetrics metrics = new TrainingMetrics(model);
+		if (option != null && option.contains("metrics_file")) {
+			try {
+				metrics.open(option.getString("metrics_file"));
+			} catch (IOException e) {
+				logger.warn("can't write metrics to " + option.getString("metrics_file") + ": " + e.getMessage());
+			}
+		}
+		return metrics;
+	}
+
+	// appends to the file; a CSV header is written if the file is new
+	public void open (String filename) throws IOException {
+		json = filename.endsWith(".json");
+		boolean exists = new java.io.File(filename).length() > 0;
+		out = new PrintWriter(new FileWriter(filename, true));
+		if (!json && !exists) {
+			StringBuilder sb = new StringBuilder();
+			for (String column : COLUMNS)
+				sb.append(sb.length() > 0 ? "," : "").append(column);
+			out.println(sb);
+			out.flush();
+		}
+	}
+
+	public void startEpoch () {
+		startGC = gcMillis();
+		startTime = System.nanoTime();
+	}
+
+	public void endEpoch (int epoch, long nTokens, int nSequences, double objective, double accuracy, double l1, int nNonZero) {
+		double seconds = (System.nanoTime() - startTime) / 1E09;
+		double gcSeconds = (gcMillis() - startGC) / 1000.0;
+		double heapMB = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1048576.0;
+		Object[] values = {model, epoch, seconds, nTokens / seconds, nSequences / seconds, gcSeconds, heapMB, objective, accuracy, l1, nNonZero};
+
+		logger.info(String.format("[%s %d] %.2fs %.0f tokens/sec %.0f sequences/sec gc %.2fs heap %.1fMB l1 %e (%d)",
+				model, epoch, seconds, nTokens / seconds, nSequences / seconds, gcSeconds, heapMB, l1, nNonZero));
+		if (out != null) {
+			StringBuilder sb = new StringBuilder();
+			if (json)
+				sb.append('{');
+			for (int i = 0; i < COLUMNS.length; i++) {
+				if (i > 0)
+					sb.append(',');
+				String value = values[i].toString();
+				if (json && values[i] instanceof String)
+					value = "\"" + value + "\"";
+				else if (json && values[i] instanceof Double && (((Double) values[i]).isNaN() || ((Double) values[i]).isInfinite()))
+					value = "null";
+				if (json)
+					sb.append('"').append(COLUMNS[i]).append("\":");
+				sb.append(value);
+			}
+			if (json)
+				sb.append('}');
+			out.println(sb);
+			out.flush();
+		}
+	}
+
+	// same as above, with the L1 norm and the non-zero count taken from the weights
+	public void endEpoch (int epoch, long nTokens, int nSequences, double objective, double accuracy, double[] weight) {
+		double l1 = 0;
+		int nNonZero = 0;
+		for (double w : weight) {
+			l1 += Math.abs(w);
+			if (w != 0)
+				nNonZero++;
+		}
+		endEpoch(epoch, nTokens, nSequences, objective, accuracy, l1, nNonZero);
+	}
+
+	public void close () {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+
+	// total time spent in collections so far
+	private static long gcMillis () {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			total += Math.max(0, gc.getCollectionTime());
+		return total;
+	}
+}
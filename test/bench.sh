@@ -0,0 +1,2 @@
+CLASSPATH=".:../bin:../lib/trove-3.0.0a3.jar:../lib/mtj-0.9.12.jar:../lib/log4j-1.2.15.jar:../lib/jargs.jar:../lib/stanford-corenlp-2010-11-12.jar"
+java -mx4000m -cp ${CLASSPATH} openie.bench.KernelBenchmarks "$@"